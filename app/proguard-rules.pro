@@ -0,0 +1,4 @@
+# Shizuku instantiates the UserService by class name inside its own process
+-keep class com.northmendo.Appzuku.PrivilegedService {
+    public <init>();
+}
@@ -0,0 +1,181 @@
+package com.northmendo.Appzuku;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Packages the user can currently see or hear, parsed in one pass from
+ * {@link #COMMAND}. The LRU section contributes processes whose adj type or
+ * process state is foreground, visible, perceptible or a foreground service.
+ * The activities section contributes resumed activities, visible tasks and
+ * activities, and pinned (PiP) tasks. Tasks are listed top to bottom per
+ * display, so once an opaque visible task has been passed, the first hidden
+ * task means the rest of that display can be skipped. Parsing stops once
+ * the display stacks are over; the rest of the dump still comes through the
+ * persistent shell session, which is cheaper than a process of its own.
+ * Stale recents tasks are never counted.
+ */
+final class ActivityStateParser {
+    private static final String TAG = "ActivityStateParser";
+
+    static final String COMMAND = "dumpsys activity lru; dumpsys activity activities";
+
+    private static final Pattern ACTIVITY_RECORD = Pattern.compile("ActivityRecord\\{\\S+ u\\d+ ([A-Za-z][\\w.]*)/");
+    // "12345:com.foo:remote/u0a123"
+    private static final Pattern LRU_PROCESS = Pattern.compile("\\d+:([A-Za-z][\\w.]*)[^/\\s]*/u\\d+");
+    private static final Set<String> FOREGROUND_ADJ_TYPES = new HashSet<>(Arrays.asList("fg", "vis", "prcp"));
+    private static final Set<String> FOREGROUND_PROC_STATES = new HashSet<>(
+            Arrays.asList("TOP", "BTOP", "FGS", "BFGS", "IMPF"));
+    private static final String[] END_OF_STACKS = {
+            "ActivityTaskSupervisor", "ActivityStackSupervisor", "mCurTaskId", "mUserStackInFront",
+            "mUserRootTaskInFront"
+    };
+
+    private enum Section {
+        NONE, LRU, ACTIVITIES
+    }
+
+    private final Set<String> packages = new HashSet<>();
+    private Section section = Section.NONE;
+    private boolean sawActivities;
+    private boolean done;
+    // Per display
+    private boolean passedOpaqueTask;
+    private boolean skipDisplay;
+    // Per task
+    private boolean taskShown;
+    private boolean taskTopAdded;
+    // Per activity
+    private String activityPackage;
+
+    private ActivityStateParser() {
+    }
+
+    /**
+     * Foreground packages as an unmodifiable set, or null if the dump failed.
+     * This method is blocking and should be called from a background thread.
+     */
+    static Set<String> capture(ShellManager shellManager) {
+        ActivityStateParser parser = new ActivityStateParser();
+        ShellManager.ShellResult result = shellManager.runShellCommandForEachLine(COMMAND, line -> {
+            if (!parser.done) {
+                parser.accept(line);
+            }
+        });
+        if (result.timedOut() || !parser.sawActivities) {
+            Log.w(TAG, "Activity dump failed: " + result.stderr());
+            return null;
+        }
+        return Collections.unmodifiableSet(parser.packages);
+    }
+
+    private void accept(String line) {
+        String trimmed = line.trim();
+        if (trimmed.startsWith("ACTIVITY MANAGER LRU")) {
+            section = Section.LRU;
+            return;
+        }
+        if (trimmed.startsWith("ACTIVITY MANAGER ACTIVITIES")) {
+            section = Section.ACTIVITIES;
+            sawActivities = true;
+            return;
+        }
+        if (section == Section.LRU) {
+            acceptLru(trimmed);
+        } else if (section == Section.ACTIVITIES) {
+            acceptActivities(trimmed);
+        }
+    }
+
+    /**
+     * "#52: fg TOP LCM 12345:com.foo/u0a123 act:activities" on current
+     * releases, "Proc #52: fg T/A/TOP LCM t: 0 12345:com.foo/u0a123" on older
+     * ones.
+     */
+    private void acceptLru(String line) {
+        if (!line.startsWith("#") && !line.startsWith("Proc #")) {
+            return;
+        }
+        String[] tokens = line.split("\\s+");
+        int first = line.startsWith("Proc #") ? 2 : 1;
+        if (tokens.length <= first + 1) {
+            return;
+        }
+        String procState = tokens[first + 1];
+        int slash = procState.lastIndexOf('/');
+        if (slash >= 0) {
+            procState = procState.substring(slash + 1);
+        }
+        if (!FOREGROUND_ADJ_TYPES.contains(tokens[first]) && !FOREGROUND_PROC_STATES.contains(procState)) {
+            return;
+        }
+        Matcher matcher = LRU_PROCESS.matcher(line);
+        if (matcher.find()) {
+            packages.add(matcher.group(1));
+        }
+    }
+
+    private void acceptActivities(String line) {
+        if (line.startsWith("Display #")) {
+            passedOpaqueTask = false;
+            skipDisplay = false;
+            return;
+        }
+        for (String marker : END_OF_STACKS) {
+            if (line.startsWith(marker)) {
+                done = true;
+                return;
+            }
+        }
+        if (line.contains("ResumedActivity") || line.startsWith("mFocusedApp=")) {
+            addActivityPackage(line);
+            return;
+        }
+        if (skipDisplay) {
+            return;
+        }
+
+        if (line.startsWith("* Task{") || line.startsWith("* TaskRecord{")) {
+            boolean visible = line.contains(" visible=true");
+            boolean pinned = line.contains("mode=pinned");
+            if (!visible && !pinned && passedOpaqueTask) {
+                skipDisplay = true;
+                return;
+            }
+            taskShown = visible || pinned;
+            taskTopAdded = false;
+            if (visible && !pinned && line.contains("mode=fullscreen") && !line.contains("translucent=true")) {
+                passedOpaqueTask = true;
+            }
+            return;
+        }
+        if (line.startsWith("* Hist") || line.startsWith("* ActivityRecord{")) {
+            Matcher matcher = ACTIVITY_RECORD.matcher(line);
+            activityPackage = matcher.find() ? matcher.group(1) : null;
+            // Activities are listed top first; the top one of a shown task is on screen
+            if (taskShown && !taskTopAdded && activityPackage != null) {
+                packages.add(activityPackage);
+                taskTopAdded = true;
+            }
+            return;
+        }
+        if (activityPackage != null
+                && (line.contains("mVisible=true") || line.contains("nowVisible=true")
+                        || line.startsWith("visible=true"))) {
+            packages.add(activityPackage);
+        }
+    }
+
+    private void addActivityPackage(String line) {
+        Matcher matcher = ACTIVITY_RECORD.matcher(line);
+        if (matcher.find()) {
+            packages.add(matcher.group(1));
+        }
+    }
+}
@@ -30,8 +30,28 @@ public final class AppConstants {
         public static final int RELAUNCH_GREEDY_THRESHOLD = 3; // Consider app "greedy" if relaunched more than this
 
         // Delays
-        public static final int RELAUNCH_CHECK_DELAY_MS = 2000; // 2 seconds delay before checking relaunches
+        public static final long[] KILL_DEATH_POLL_DELAYS_MS = { 250, 250, 500, 1000, 2000 }; // backoff between checks that killed apps are gone
+        public static final long[] RELAUNCH_CHECK_HORIZONS_MS = { 1000, 10000, 60000 }; // after a confirmed kill, without the event log
+        public static final long RELAUNCH_WATCH_WINDOW_MS = 30 * 60 * 1000L; // 30 minutes of event-log relaunch tracking per kill
+        public static final long PROCESS_TABLE_RESYNC_MS = 10 * 60 * 1000L; // 10 minutes between /proc re-seeds of the live table
         public static final int ROOT_CHECK_TIMEOUT_MS = 1000; // 1 second timeout for root check
+        public static final int ROOT_GRANT_TIMEOUT_MS = 30000; // 30 seconds to answer the superuser prompt
+        public static final int SHELL_COMMAND_TIMEOUT_MS = 15000; // 15 seconds per shell command
+        public static final long SHELL_CAPABILITY_CACHE_TTL_MS = 24 * 60 * 60 * 1000L; // 24 hours
+        public static final int BACKEND_FAILURE_THRESHOLD = 3; // consecutive shell failures before a backend is skipped
+        public static final long BACKEND_OPEN_COOLDOWN_MS = 30000; // 30 seconds before a skipped backend is probed again
+
+        // Shell query cache
+        public static final long PROCESS_LIST_CACHE_TTL_MS = 1500; // ps and dumpsys results
+        public static final long APP_OPS_CACHE_TTL_MS = 5000; // appops query-op results
+        public static final long SERVICE_STATE_CACHE_TTL_MS = 10000; // services and media session dumps
+
+        // App icons
+        public static final int ICON_CACHE_MAX_BYTES = 8 * 1024 * 1024; // decoded list-size bitmaps
+        public static final int ICON_SIZE_DP = 48; // app_icon and filter_app_icon
+
+        // Shell output
+        public static final int SHELL_OUTPUT_MAX_CHARS = 2 * 1024 * 1024; // per stream, per command
 
         // RAM Monitor
         public static final int RAM_MONITOR_UPDATE_INTERVAL_MS = 2000; // 2 seconds
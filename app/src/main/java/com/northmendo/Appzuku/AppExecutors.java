@@ -0,0 +1,251 @@
+package com.northmendo.Appzuku;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide background threads. Every shell-using component shares one
+ * bounded pool instead of creating (and tearing down) its own executor.
+ * Components that relied on a single-thread executor for ordering get a
+ * {@link #newSerialExecutor() serial view} of the pool: tasks submitted to it
+ * run one at a time, in order, on the shared threads.
+ * <p>
+ * Work is split into {@link Lane lanes}. User-initiated actions run on the
+ * interactive lane, which has threads (and a root shell, see
+ * {@link RootShellSession#forCurrentThread()}) of its own, so a kill starts
+ * right away whatever scans are queued. On the shared pool, automation tasks
+ * are picked before maintenance tasks.
+ * <p>
+ * Delayed work goes through {@link #schedule}, which belongs to the process
+ * rather than to an activity or service, so closing one does not drop
+ * follow-ups such as kill verification.
+ */
+public final class AppExecutors {
+    private static final int POOL_SIZE = 4;
+    private static final int INTERACTIVE_POOL_SIZE = 2;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    public enum Lane {
+        /** Kills and other actions the user is waiting for */
+        INTERACTIVE,
+        /** Scans, list refreshes and automatic kills */
+        AUTOMATION,
+        /** Relaunch checks, pruning, icon decoding and other deferred work */
+        MAINTENANCE
+    }
+
+    private static final ThreadLocal<Boolean> interactiveThread = new ThreadLocal<>();
+    private static final AtomicLong taskSequence = new AtomicLong();
+
+    private static ThreadPoolExecutor pool;
+    private static ThreadPoolExecutor interactivePool;
+    private static ScheduledExecutorService scheduler;
+
+    private AppExecutors() {
+        // Prevent instantiation
+    }
+
+    /**
+     * The shared pool. Tasks may run concurrently with each other. Tasks
+     * submitted directly run on the automation lane.
+     */
+    public static synchronized ExecutorService shared() {
+        if (pool == null) {
+            pool = new LanePool(POOL_SIZE, newThreadFactory("AppzukuWorker-", false));
+        }
+        return pool;
+    }
+
+    /**
+     * Threads reserved for the interactive lane.
+     */
+    public static synchronized ExecutorService interactive() {
+        if (interactivePool == null) {
+            interactivePool = new ThreadPoolExecutor(INTERACTIVE_POOL_SIZE, INTERACTIVE_POOL_SIZE, KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<>(), newThreadFactory("AppzukuInteractive-", true));
+            interactivePool.allowCoreThreadTimeOut(true);
+        }
+        return interactivePool;
+    }
+
+    /**
+     * Executor for one lane; tasks may run concurrently with each other.
+     */
+    public static Executor forLane(Lane lane) {
+        if (lane == Lane.INTERACTIVE) {
+            return interactive();
+        }
+        ExecutorService shared = shared();
+        return command -> shared.execute(new LaneTask(lane, command));
+    }
+
+    /**
+     * Run {@code task} on {@code lane} after {@code delayMs}. The scheduler
+     * thread only hands tasks over, so a slow task never delays another.
+     */
+    public static void schedule(Lane lane, Runnable task, long delayMs) {
+        Executor executor = forLane(lane);
+        scheduler().schedule(() -> executor.execute(task), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = new ScheduledThreadPoolExecutor(1, newThreadFactory("AppzukuScheduler-", false));
+        }
+        return scheduler;
+    }
+
+    /**
+     * Whether the calling thread belongs to the interactive lane.
+     */
+    public static boolean isInteractiveThread() {
+        return Boolean.TRUE.equals(interactiveThread.get());
+    }
+
+    /**
+     * A new executor that runs its tasks one at a time, in submission order, on
+     * the automation lane. It does not own any thread, so it never needs to be
+     * shut down; shutdown() only stops it from accepting new tasks.
+     */
+    public static ExecutorService newSerialExecutor() {
+        return newSerialExecutor(Lane.AUTOMATION);
+    }
+
+    /**
+     * Like {@link #newSerialExecutor()}, on the given lane.
+     */
+    public static ExecutorService newSerialExecutor(Lane lane) {
+        return new SerialExecutor(forLane(lane));
+    }
+
+    private static ThreadFactory newThreadFactory(String prefix, boolean interactive) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(() -> {
+                if (interactive) {
+                    interactiveThread.set(true);
+                }
+                runnable.run();
+            }, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Task tagged with its lane. Ordered by lane, then by submission order.
+     */
+    private static final class LaneTask implements Runnable, Comparable<LaneTask> {
+        private final Lane lane;
+        private final long sequence = taskSequence.getAndIncrement();
+        private final Runnable task;
+
+        LaneTask(Lane lane, Runnable task) {
+            this.lane = lane;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(LaneTask other) {
+            int byLane = lane.compareTo(other.lane);
+            return byLane != 0 ? byLane : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * Shared pool whose queue hands out automation tasks before maintenance
+     * tasks. Untagged tasks (including those from submit()) count as automation.
+     */
+    private static final class LanePool extends ThreadPoolExecutor {
+        LanePool(int size, ThreadFactory factory) {
+            super(size, size, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), factory);
+            allowCoreThreadTimeOut(true);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            super.execute(command instanceof LaneTask ? command : new LaneTask(Lane.AUTOMATION, command));
+        }
+    }
+
+    private static final class SerialExecutor extends AbstractExecutorService {
+        private final Executor delegate;
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private Runnable active;
+        private boolean shutdown;
+
+        SerialExecutor(Executor delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            if (shutdown) {
+                return;
+            }
+            tasks.offer(() -> {
+                try {
+                    command.run();
+                } finally {
+                    scheduleNext();
+                }
+            });
+            if (active == null) {
+                scheduleNext();
+            }
+        }
+
+        private synchronized void scheduleNext() {
+            active = tasks.poll();
+            if (active != null) {
+                delegate.execute(active);
+            }
+        }
+
+        @Override
+        public synchronized void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public synchronized List<Runnable> shutdownNow() {
+            shutdown = true;
+            List<Runnable> pending = new ArrayList<>(tasks);
+            tasks.clear();
+            return pending;
+        }
+
+        @Override
+        public synchronized boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public synchronized boolean isTerminated() {
+            return shutdown && active == null && tasks.isEmpty();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return isTerminated();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.northmendo.Appzuku;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Loads app icons into list rows when they are bound. Icons are drawn once at
+ * {@link AppConstants#ICON_SIZE_DP} and kept as bitmaps in an LRU cache
+ * bounded by {@link AppConstants#ICON_CACHE_MAX_BYTES}, so full-size adaptive
+ * icons are never held for rows that are not on screen. A cached icon is
+ * reused only while the package's {@link PackageMetadataCache} entry is the
+ * one it was drawn from, so updated apps get their new icon. Binding a view
+ * again, or {@link #cancel cancelling} it when it is recycled, drops its
+ * pending load.
+ * <p>
+ * {@link #load} and {@link #cancel} must be called on the main thread.
+ */
+public final class AppIconLoader {
+    private static final String TAG = "AppIconLoader";
+
+    private static AppIconLoader instance;
+
+    private final Resources resources;
+    private final PackageMetadataCache metadataCache;
+    private final int iconSizePx;
+    private final LruCache<String, CachedIcon> cache;
+    // Lowest lane, so scrolling through a long list never holds up a scheduled kill
+    private final Executor executor = AppExecutors.forLane(AppExecutors.Lane.MAINTENANCE);
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // Main thread only. The load each view is waiting for
+    private final Map<ImageView, Request> pending = new WeakHashMap<>();
+
+    private static final class CachedIcon {
+        final PackageMetadataCache.Metadata metadata;
+        final Bitmap bitmap;
+
+        CachedIcon(PackageMetadataCache.Metadata metadata, Bitmap bitmap) {
+            this.metadata = metadata;
+            this.bitmap = bitmap;
+        }
+    }
+
+    private static final class Request {
+        final String packageName;
+        volatile boolean cancelled;
+
+        Request(String packageName) {
+            this.packageName = packageName;
+        }
+    }
+
+    private AppIconLoader(Context context) {
+        this.resources = context.getResources();
+        this.metadataCache = PackageMetadataCache.getInstance(context);
+        this.iconSizePx = Math.round(AppConstants.ICON_SIZE_DP * resources.getDisplayMetrics().density);
+        int maxBytes = (int) Math.min(AppConstants.ICON_CACHE_MAX_BYTES, Runtime.getRuntime().maxMemory() / 8);
+        this.cache = new LruCache<String, CachedIcon>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, CachedIcon value) {
+                return value.bitmap.getByteCount();
+            }
+        };
+
+        context.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                if (level >= TRIM_MEMORY_BACKGROUND) {
+                    cache.evictAll();
+                } else if (level >= TRIM_MEMORY_UI_HIDDEN) {
+                    cache.trimToSize(cache.maxSize() / 2);
+                }
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory() {
+                cache.evictAll();
+            }
+        });
+    }
+
+    public static synchronized AppIconLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new AppIconLoader(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Show the icon of {@code packageName} in {@code view}: right away if it
+     * is cached, otherwise once it has been loaded in the background.
+     */
+    public void load(ImageView view, String packageName) {
+        cancel(view);
+        CachedIcon cached = cache.get(packageName);
+        if (cached != null && cached.metadata == metadataCache.peek(packageName)) {
+            view.setImageDrawable(new BitmapDrawable(resources, cached.bitmap));
+            return;
+        }
+        view.setImageDrawable(null);
+        Request request = new Request(packageName);
+        pending.put(view, request);
+        executor.execute(() -> decode(view, request));
+    }
+
+    /**
+     * Drop the pending load of a view that is being recycled.
+     */
+    public void cancel(ImageView view) {
+        Request request = pending.remove(view);
+        if (request != null) {
+            request.cancelled = true;
+        }
+    }
+
+    private void decode(ImageView view, Request request) {
+        if (request.cancelled) {
+            return;
+        }
+        PackageMetadataCache.Metadata metadata = metadataCache.get(request.packageName);
+        if (metadata == null) {
+            return;
+        }
+        Bitmap bitmap;
+        try {
+            bitmap = render(metadataCache.loadIcon(metadata));
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Unable to load icon of " + request.packageName, e);
+            return;
+        }
+        cache.put(request.packageName, new CachedIcon(metadata, bitmap));
+        handler.post(() -> {
+            if (pending.get(view) == request) {
+                pending.remove(view);
+                view.setImageDrawable(new BitmapDrawable(resources, bitmap));
+            }
+        });
+    }
+
+    private Bitmap render(Drawable icon) {
+        Bitmap bitmap = Bitmap.createBitmap(iconSizePx, iconSizePx, Bitmap.Config.ARGB_8888);
+        icon.setBounds(0, 0, iconSizePx, iconSizePx);
+        icon.draw(new Canvas(bitmap));
+        return bitmap;
+    }
+}
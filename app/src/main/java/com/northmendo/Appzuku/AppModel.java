@@ -1,13 +1,10 @@
 package com.northmendo.Appzuku;
 
-import android.graphics.drawable.Drawable;
-
 public class AppModel {
     private String appName;
     private String packageName;
     private String appRam;
     private long appRamBytes;
-    private Drawable appIcon;
     private boolean isSystemApp;
     private boolean isPersistentApp;
     private boolean selected;
@@ -18,13 +15,12 @@ public class AppModel {
     private boolean backgroundRestrictionActualKnown;
 
     // Initialize app model
-    public AppModel(String appName, String packageName, String appRam, long appRamBytes, Drawable appIcon,
-            boolean isSystemApp, boolean isPersistentApp, boolean isProtected) {
+    public AppModel(String appName, String packageName, String appRam, long appRamBytes, boolean isSystemApp,
+            boolean isPersistentApp, boolean isProtected) {
         this.appName = appName;
         this.packageName = packageName;
         this.appRam = appRam;
         this.appRamBytes = appRamBytes;
-        this.appIcon = appIcon;
         this.isSystemApp = isSystemApp;
         this.isPersistentApp = isPersistentApp;
         this.isProtected = isProtected;
@@ -128,15 +124,6 @@ public class AppModel {
         this.appRamBytes = appRamBytes;
     }
 
-    // Get and set app icon
-    public Drawable getAppIcon() {
-        return appIcon;
-    }
-
-    public void setAppIcon(Drawable appIcon) {
-        this.appIcon = appIcon;
-    }
-
     // Get and set system app status
     public boolean isSystemApp() {
         return isSystemApp;
@@ -0,0 +1,255 @@
+package com.northmendo.Appzuku;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.northmendo.Appzuku.db.AppPolicy;
+import com.northmendo.Appzuku.db.AppPolicyDao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+
+import static com.northmendo.Appzuku.PreferenceKeys.*;
+
+/**
+ * The hidden, whitelisted, blacklisted and background-restricted app lists,
+ * stored one row per package in the {@code app_policy} table. The table is
+ * loaded into memory once, in the background, and reads are served from
+ * there. Writes update memory right away and are persisted in order on a
+ * serial executor, touching only the rows that changed. Like
+ * SharedPreferences, the first read waits for the initial load; the main
+ * thread must not, so UI code reads and writes from {@link #whenLoaded}.
+ * <p>
+ * The lists used to be string sets in SharedPreferences; the first load
+ * moves them into the table and removes them from preferences.
+ * {@link #getVersion()} changes on every write, so readers such as
+ * {@link KillPolicyCompiler} can tell when to rebuild without re-reading.
+ */
+public final class AppPolicyStore {
+    private static final String TAG = "AppPolicyStore";
+
+    // Preference sets the lists were stored in before the table existed
+    private static final String[] LEGACY_KEYS = {
+            KEY_HIDDEN_APPS, KEY_WHITELISTED_APPS, KEY_BLACKLISTED_APPS, KEY_AUTOSTART_DISABLED_APPS
+    };
+    private static final int[] LEGACY_FLAGS = {
+            AppPolicy.FLAG_HIDDEN, AppPolicy.FLAG_WHITELISTED, AppPolicy.FLAG_BLACKLISTED,
+            AppPolicy.FLAG_BG_RESTRICTED
+    };
+
+    private static AppPolicyStore instance;
+
+    private final SharedPreferences preferences;
+    private final AppPolicyDao dao;
+    private final ExecutorService writer = AppExecutors.newSerialExecutor(AppExecutors.Lane.MAINTENANCE);
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Guarded by this. Flags of every package with at least one flag set
+    private final Map<String, Integer> flags = new HashMap<>();
+    private volatile int version;
+
+    private AppPolicyStore(Context context) {
+        this.preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        this.dao = com.northmendo.Appzuku.db.AppDatabase.getInstance(context).appPolicyDao();
+        writer.execute(this::load);
+    }
+
+    public static synchronized AppPolicyStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new AppPolicyStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private void load() {
+        try {
+            migrateLegacyPreferences();
+            List<AppPolicy> rows = dao.getAll();
+            synchronized (this) {
+                for (AppPolicy row : rows) {
+                    if (row.flags != 0) {
+                        flags.put(row.packageName, row.flags);
+                    }
+                }
+                version++;
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Unable to load app lists", e);
+        } finally {
+            loaded.countDown();
+        }
+    }
+
+    private void migrateLegacyPreferences() {
+        Map<String, Integer> legacy = new HashMap<>();
+        boolean found = false;
+        for (int i = 0; i < LEGACY_KEYS.length; i++) {
+            Set<String> packageNames = preferences.getStringSet(LEGACY_KEYS[i], null);
+            if (packageNames == null) {
+                continue;
+            }
+            found = true;
+            for (String packageName : packageNames) {
+                Integer current = legacy.get(packageName);
+                legacy.put(packageName, (current == null ? 0 : current) | LEGACY_FLAGS[i]);
+            }
+        }
+        if (!found) {
+            return;
+        }
+        for (Map.Entry<String, Integer> entry : legacy.entrySet()) {
+            for (int flag : LEGACY_FLAGS) {
+                if ((entry.getValue() & flag) != 0) {
+                    dao.setFlag(entry.getKey(), flag, true);
+                }
+            }
+        }
+        SharedPreferences.Editor editor = preferences.edit();
+        for (String key : LEGACY_KEYS) {
+            editor.remove(key);
+        }
+        // Committed, so a crash cannot migrate the same sets twice over newer rows
+        editor.commit();
+        Log.i(TAG, "Moved " + legacy.size() + " app list entries out of preferences");
+    }
+
+    /**
+     * Run {@code action} on the main thread once the lists are loaded, right
+     * away if they are and this is the main thread. Reads and writes made
+     * from it never wait.
+     */
+    public void whenLoaded(Runnable action) {
+        if (loaded.getCount() == 0 && Looper.myLooper() == Looper.getMainLooper()) {
+            action.run();
+            return;
+        }
+        // The load is the writer's first task, so anything queued behind it runs after it
+        writer.execute(() -> mainHandler.post(action));
+    }
+
+    private void awaitLoad() {
+        if (loaded.getCount() != 0 && Looper.myLooper() == Looper.getMainLooper()) {
+            Log.w(TAG, "Main thread waiting for the app lists; use whenLoaded", new Throwable());
+        }
+        try {
+            loaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getVersion() {
+        awaitLoad();
+        return version;
+    }
+
+    public boolean has(String packageName, int flag) {
+        awaitLoad();
+        synchronized (this) {
+            Integer packageFlags = flags.get(packageName);
+            return packageFlags != null && (packageFlags & flag) != 0;
+        }
+    }
+
+    /**
+     * A modifiable copy of the packages with {@code flag} set.
+     */
+    public Set<String> getPackages(int flag) {
+        awaitLoad();
+        Set<String> packageNames = new HashSet<>();
+        synchronized (this) {
+            for (Map.Entry<String, Integer> entry : flags.entrySet()) {
+                if ((entry.getValue() & flag) != 0) {
+                    packageNames.add(entry.getKey());
+                }
+            }
+        }
+        return packageNames;
+    }
+
+    public void set(String packageName, int flag, boolean set) {
+        awaitLoad();
+        synchronized (this) {
+            if (!apply(packageName, flag, set)) {
+                return;
+            }
+            version++;
+        }
+        writer.execute(() -> dao.setFlag(packageName, flag, set));
+    }
+
+    /**
+     * Flip {@code flag} for one package and return whether it is now set.
+     */
+    public boolean toggle(String packageName, int flag) {
+        awaitLoad();
+        boolean set;
+        synchronized (this) {
+            Integer packageFlags = flags.get(packageName);
+            set = packageFlags == null || (packageFlags & flag) == 0;
+            apply(packageName, flag, set);
+            version++;
+        }
+        writer.execute(() -> dao.setFlag(packageName, flag, set));
+        return set;
+    }
+
+    /**
+     * Make {@code packageNames} exactly the packages with {@code flag} set.
+     * Only packages that join or leave the list are written.
+     */
+    public void replace(int flag, Collection<String> packageNames) {
+        awaitLoad();
+        Set<String> target = new HashSet<>(packageNames);
+        List<String> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<String, Integer> entry : flags.entrySet()) {
+                if ((entry.getValue() & flag) != 0 && !target.contains(entry.getKey())) {
+                    removed.add(entry.getKey());
+                }
+            }
+            for (String packageName : target) {
+                if (apply(packageName, flag, true)) {
+                    added.add(packageName);
+                }
+            }
+            for (String packageName : removed) {
+                apply(packageName, flag, false);
+            }
+            if (added.isEmpty() && removed.isEmpty()) {
+                return;
+            }
+            version++;
+        }
+        writer.execute(() -> dao.updateFlag(flag, added, removed));
+    }
+
+    /**
+     * Update the in-memory flags; returns false if nothing changed.
+     */
+    private boolean apply(String packageName, int flag, boolean set) {
+        Integer current = flags.get(packageName);
+        int before = current == null ? 0 : current;
+        int after = set ? before | flag : before & ~flag;
+        if (after == before) {
+            return false;
+        }
+        if (after == 0) {
+            flags.remove(packageName);
+        } else {
+            flags.put(packageName, after);
+        }
+        return true;
+    }
+}
@@ -16,7 +16,6 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import static com.northmendo.Appzuku.PreferenceKeys.*;
@@ -65,48 +64,34 @@ public class AutoKillWorker extends Worker {
 
         // Initialize components for background work
         Handler handler = new Handler(Looper.getMainLooper());
-        ExecutorService executor = Executors.newSingleThreadExecutor();
-
-        try {
-            ShellManager shellManager = new ShellManager(getApplicationContext(), handler, executor);
-            BackgroundAppManager appManager = new BackgroundAppManager(getApplicationContext(), handler, executor,
-                    shellManager);
-
-            // Wait for root check or just proceed if Shizuku
-            if (!shellManager.hasAnyShellPermission()) {
-                // Try to wait a bit for root check or fail
-                try {
-                    Thread.sleep(ROOT_CHECK_TIMEOUT_MS);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    return Result.failure();
-                }
-                if (!shellManager.hasAnyShellPermission()) {
-                    return Result.failure();
-                }
-            }
+        ExecutorService executor = AppExecutors.newSerialExecutor();
+        ShellManager shellManager = ShellManager.getInstance(getApplicationContext());
+        BackgroundAppManager appManager = new BackgroundAppManager(getApplicationContext(), handler, executor,
+                shellManager);
+
+        // Shizuku is usable right away; otherwise wait for the shared root probe (no-op if done or cached)
+        if (!shellManager.hasAnyShellPermission()
+                && shellManager.awaitCapability(ROOT_CHECK_TIMEOUT_MS) == ShellManager.Capability.NONE) {
+            return Result.failure();
+        }
 
-            // Synchronous waiting for async kill
-            CountDownLatch latch = new CountDownLatch(1);
-            appManager.performAutoKill(latch::countDown);
+        // Synchronous waiting for async kill
+        CountDownLatch latch = new CountDownLatch(1);
+        appManager.performAutoKill(latch::countDown);
 
-            try {
-                latch.await();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                return Result.retry();
-            }
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.retry();
+        }
 
-            // Prune old stats periodically
-            long pruneThreshold = System.currentTimeMillis() - STATS_PRUNE_THRESHOLD_MS;
-            com.northmendo.Appzuku.db.AppDatabase.getInstance(getApplicationContext())
-                    .appStatsDao().deleteOldStats(pruneThreshold);
+        // Prune old stats periodically
+        long pruneThreshold = System.currentTimeMillis() - STATS_PRUNE_THRESHOLD_MS;
+        com.northmendo.Appzuku.db.AppDatabase.getInstance(getApplicationContext())
+                .appStatsDao().deleteOldStats(pruneThreshold);
 
-            return Result.success();
-        } finally {
-            // Fixed: Always shut down executor to prevent thread leaks
-            executor.shutdownNow();
-        }
+        return Result.success();
     }
 
     private int getCurrentRamUsagePercent() {
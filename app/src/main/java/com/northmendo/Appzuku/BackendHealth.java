@@ -0,0 +1,138 @@
+package com.northmendo.Appzuku;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Circuit breaker for one shell backend (root or Shizuku). After
+ * {@link AppConstants#BACKEND_FAILURE_THRESHOLD} consecutive backend failures
+ * the circuit opens and {@link ShellManager} routes commands to the other
+ * backend. Once {@link AppConstants#BACKEND_OPEN_COOLDOWN_MS} has passed, one
+ * command is let through as a probe (half-open); its outcome closes or reopens
+ * the circuit. A backend failure means the shell itself failed or hung, not
+ * that a command exited non-zero.
+ */
+public final class BackendHealth {
+    private static final String TAG = "BackendHealth";
+    private static final double LATENCY_EWMA_WEIGHT = 0.2;
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long totalSuccesses;
+    private long totalFailures;
+    private double latencyEwmaMs = -1;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    BackendHealth(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Whether a command should be sent to this backend now. In the half-open
+     * state only one caller at a time gets true, and it must report the
+     * outcome with {@link #recordSuccess}, {@link #recordFailure} or
+     * {@link #recordCancelled}.
+     */
+    synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (SystemClock.elapsedRealtime() - openedAt < AppConstants.BACKEND_OPEN_COOLDOWN_MS) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probeInFlight = false;
+                // fall through
+            case HALF_OPEN:
+            default:
+                if (probeInFlight) {
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+        }
+    }
+
+    /**
+     * @param latencyMs time the command took, or -1 to leave the average alone
+     */
+    synchronized void recordSuccess(long latencyMs) {
+        if (state != State.CLOSED) {
+            Log.i(TAG, name + " recovered, closing circuit");
+        }
+        state = State.CLOSED;
+        probeInFlight = false;
+        consecutiveFailures = 0;
+        totalSuccesses++;
+        updateLatency(latencyMs);
+    }
+
+    synchronized void recordFailure(long latencyMs) {
+        consecutiveFailures++;
+        totalFailures++;
+        updateLatency(latencyMs);
+        if (state == State.HALF_OPEN
+                || (state == State.CLOSED && consecutiveFailures >= AppConstants.BACKEND_FAILURE_THRESHOLD)) {
+            Log.w(TAG, name + " failed " + consecutiveFailures + " times in a row, opening circuit");
+            state = State.OPEN;
+            openedAt = SystemClock.elapsedRealtime();
+            probeInFlight = false;
+        }
+    }
+
+    /**
+     * The command was cancelled by its caller, which says nothing about the
+     * backend; only frees the half-open probe slot.
+     */
+    synchronized void recordCancelled() {
+        probeInFlight = false;
+    }
+
+    private void updateLatency(long latencyMs) {
+        if (latencyMs < 0) {
+            return;
+        }
+        latencyEwmaMs = latencyEwmaMs < 0
+                ? latencyMs
+                : LATENCY_EWMA_WEIGHT * latencyMs + (1 - LATENCY_EWMA_WEIGHT) * latencyEwmaMs;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        // Report a cooled-down circuit as half-open even before the next command probes it
+        if (state == State.OPEN
+                && SystemClock.elapsedRealtime() - openedAt >= AppConstants.BACKEND_OPEN_COOLDOWN_MS) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public synchronized long getTotalSuccesses() {
+        return totalSuccesses;
+    }
+
+    public synchronized long getTotalFailures() {
+        return totalFailures;
+    }
+
+    /**
+     * Exponentially weighted average command latency, or -1 before the first command.
+     */
+    public synchronized long getLatencyEwmaMs() {
+        return Math.round(latencyEwmaMs);
+    }
+}
@@ -1,10 +1,9 @@
 package com.northmendo.Appzuku;
 
+import android.app.AppOpsManager;
 import android.appwidget.AppWidgetManager;
 import android.content.ComponentName;
 import android.content.Context;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
 import android.content.SharedPreferences;
 import android.os.Handler;
 import android.util.Log;
@@ -13,19 +12,20 @@ import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import androidx.core.app.NotificationCompat;
 import android.os.Build;
-import java.io.IOException;
 
-import java.io.BufferedReader;
-import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -37,12 +37,23 @@ import static com.northmendo.Appzuku.AppConstants.*;
 public class BackgroundAppManager {
     private static final String TAG = "BackgroundAppManager";
     private static final String BACKGROUND_RESTRICTION_OP = "RUN_ANY_IN_BACKGROUND";
+    private static final String BACKGROUND_RESTRICTION_OPSTR = "android:run_any_in_background";
     private static final Pattern PACKAGE_NAME_PATTERN = Pattern.compile("[A-Za-z][A-Za-z0-9_]*(?:\\.[A-Za-z0-9_]+)+");
-    private static final String FORCE_STOP_COMMAND_PREFIX = "am force-stop ";
+    private static final String PROCESS_SNAPSHOT_KEY = "process-snapshot";
     private final Context context;
     private final Handler handler;
     private final ExecutorService executor;
+    // Manual kills skip the queue of scans on the caller's executor
+    private final Executor interactiveExecutor = AppExecutors.forLane(AppExecutors.Lane.INTERACTIVE);
     private final ShellManager shellManager;
+    private final ShellQueryCache queryCache;
+    private final SmapsRollupReader smapsReader;
+    private final ProcessEventMonitor processMonitor;
+    private final KillExecutor killExecutor;
+    private final PackageMetadataCache metadataCache;
+    private final KillPolicyCompiler policyCompiler;
+    private final AppPolicyStore policyStore;
+    private final PrivilegedServiceClient privilegedService;
     private final List<AppModel> currentAppsList = new ArrayList<>();
     private boolean showSystemApps = false;
     private boolean showPersistentApps = false;
@@ -53,7 +64,17 @@ public class BackgroundAppManager {
         this.handler = handler;
         this.executor = executor;
         this.shellManager = shellManager;
+        this.queryCache = ShellQueryCache.getInstance(context);
+        this.smapsReader = SmapsRollupReader.getInstance(context);
+        this.processMonitor = ProcessEventMonitor.getInstance(context);
+        this.metadataCache = PackageMetadataCache.getInstance(context);
+        this.policyCompiler = KillPolicyCompiler.getInstance(context);
+        this.policyStore = AppPolicyStore.getInstance(context);
+        this.privilegedService = PrivilegedServiceClient.getInstance(context);
+        this.killExecutor = new KillExecutor(shellManager, privilegedService, queryCache, processMonitor,
+                this::measurePackageMemory, new KillVerifier(context, this::getRunningProcessesForVerification));
         this.sharedpreferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        privilegedService.bindIfPossible();
     }
 
     public boolean supportsBackgroundRestriction() {
@@ -64,34 +85,36 @@ public class BackgroundAppManager {
         return supportsBackgroundRestriction() && shellManager.hasAnyShellPermission();
     }
 
-    public void loadBackgroundRestrictionApps(Consumer<List<AppModel>> callback) {
+    /**
+     * Load every installed app with its background restriction state, and
+     * the packages meant to be restricted, then call back on the main thread.
+     */
+    public void loadBackgroundRestrictionApps(BiConsumer<List<AppModel>, Set<String>> callback) {
         executor.execute(() -> {
-            PackageManager pm = context.getPackageManager();
-            List<ApplicationInfo> packages = pm.getInstalledApplications(PackageManager.GET_META_DATA);
-            Set<String> desiredPackages = getBackgroundRestrictedApps();
+            KillPolicy policy = policyCompiler.get();
+            Set<String> desiredPackages = policy.getBackgroundRestrictedApps();
             BackgroundRestrictionState state = getBackgroundRestrictionState();
             List<AppModel> result = new ArrayList<>();
-            for (ApplicationInfo appInfo : packages) {
-                String packageName = appInfo.packageName;
+            for (PackageMetadataCache.Metadata metadata : metadataCache.getInstalledPackages()) {
+                String packageName = metadata.packageName;
                 if (packageName.equals(context.getPackageName())) {
                     continue;
                 }
 
                 AppModel model = new AppModel(
-                        pm.getApplicationLabel(appInfo).toString(),
+                        metadata.label,
                         packageName,
                         "-",
                         0,
-                        pm.getApplicationIcon(appInfo),
-                        (appInfo.flags & ApplicationInfo.FLAG_SYSTEM) != 0,
-                        (appInfo.flags & ApplicationInfo.FLAG_PERSISTENT) != 0,
-                        ProtectedApps.isProtected(context, packageName));
+                        metadata.isSystem(),
+                        metadata.isPersistent(),
+                        policy.isProtected(packageName));
                 applyBackgroundRestrictionState(model, desiredPackages, state);
                 result.add(model);
             }
 
             Collections.sort(result, (a, b) -> a.getAppName().compareToIgnoreCase(b.getAppName()));
-            handler.post(() -> callback.accept(result));
+            handler.post(() -> callback.accept(result, desiredPackages));
         });
     }
 
@@ -103,93 +126,81 @@ public class BackgroundAppManager {
         }
 
         executor.execute(() -> {
-            Set<String> hiddenApps = getHiddenApps();
-            Set<String> whitelistedApps = getWhitelistedApps();
-            Set<String> blacklistedApps = getBlacklistedApps();
-            int killMode = getKillMode(); // 0 = Whitelist, 1 = Blacklist
-
-            String dumpOutput = shellManager.runShellCommandAndGetFullOutput("dumpsys activity activities");
-            if (dumpOutput == null) {
-                if (onComplete != null)
-                    handler.post(onComplete);
-                return;
-            }
-
-            String psOutput = shellManager.runShellCommandAndGetFullOutput(
-                    "ps -A -o rss,name | grep '\\.' | grep -v '[-:@]' | awk '{print $2}'");
-            if (psOutput == null) {
-                if (onComplete != null)
-                    handler.post(onComplete);
-                return;
-            }
-
-            Set<String> runningPackages = new HashSet<>();
-            PackageManager pm = context.getPackageManager();
-            try (BufferedReader reader = new BufferedReader(new StringReader(psOutput))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    String packageName = line.trim();
-                    if (!packageName.isEmpty() && packageName.contains(".")) {
-                        try {
-                            pm.getApplicationInfo(packageName, 0);
-                            runningPackages.add(packageName);
-                        } catch (PackageManager.NameNotFoundException ignored) {
-                        }
+            KillPolicy policy = policyCompiler.get();
+
+            // Prefer the privileged binder service; fall back to dumpsys and ps through the shell
+            Set<String> foregroundPackages = privilegedService.getForegroundPackages();
+            Set<String> runningPackages = foregroundPackages != null
+                    ? filterInstalledPackages(privilegedService.getRunningPackages())
+                    : null;
+            final Predicate<String> isForeground;
+            ProcessSnapshot snapshot = null;
+            if (runningPackages != null) {
+                isForeground = foregroundPackages::contains;
+            } else {
+                // Resumed, visible, PiP and foreground-service packages, parsed from the dump in one pass
+                Set<String> activityPackages = queryCache.query(ActivityStateParser.COMMAND,
+                        PROCESS_LIST_CACHE_TTL_MS, () -> ActivityStateParser.capture(shellManager));
+                if (activityPackages == null) {
+                    if (onComplete != null)
+                        handler.post(onComplete);
+                    return;
+                }
+                isForeground = activityPackages::contains;
+
+                // The live table answers without a scan while the event log is being followed
+                runningPackages = processMonitor.getRunningPackages();
+                if (runningPackages == null) {
+                    snapshot = getProcessSnapshot();
+                    if (snapshot == null) {
+                        if (onComplete != null)
+                            handler.post(onComplete);
+                        return;
                     }
+                    // Snapshot packages come from app uids, so no per-package installed check is needed
+                    runningPackages = new HashSet<>(snapshot.getPackages());
                 }
-            } catch (IOException ignored) {
             }
 
             List<String> toKill = runningPackages.stream()
                     .filter(pkg -> {
-                        try {
-                            // Common checks: foreground, hidden, protected
-                            if (hiddenApps.contains(pkg) || ProtectedApps.isProtected(context, pkg)
-                                    || dumpOutput.contains(pkg)) {
-                                return false;
-                            }
-
-                            if (killMode == 1) { // Blacklist Mode
-                                return blacklistedApps.contains(pkg);
-                            } else { // Whitelist Mode (Default)
-                                if (whitelistedApps.contains(pkg))
-                                    return false;
-                                // In whitelist mode, check persistent flag
-                                ApplicationInfo appInfo = pm.getApplicationInfo(pkg, 0);
-                                return (appInfo.flags & ApplicationInfo.FLAG_PERSISTENT) == 0;
-                            }
-                        } catch (PackageManager.NameNotFoundException e) {
+                        // Hidden, protected and list membership are settled by the policy
+                        KillPolicy.Verdict verdict = policy.getVerdict(pkg);
+                        if (verdict == KillPolicy.Verdict.SKIP || isForeground.test(pkg)) {
                             return false;
                         }
+                        if (verdict == KillPolicy.Verdict.KILL) {
+                            return true;
+                        }
+                        // In whitelist mode, check persistent flag
+                        PackageMetadataCache.Metadata metadata = metadataCache.get(pkg);
+                        return metadata != null && !metadata.isPersistent();
                     })
                     .collect(Collectors.toList());
 
             if (!toKill.isEmpty()) {
-                Map<String, Long> recoveredKbByPackage = new HashMap<>();
-                for (AppModel app : currentAppsList) {
-                    recoveredKbByPackage.put(app.getPackageName(), app.getAppRamBytes());
+                ServiceStateSnapshot services = queryCache.query(ServiceStateSnapshot.COMMAND,
+                        SERVICE_STATE_CACHE_TTL_MS, () -> ServiceStateSnapshot.capture(shellManager));
+                if (services != null) {
+                    toKill = applyServicePolicy(toKill, services);
                 }
-                recordSuccessfulKills(toKill, recoveredKbByPackage);
-
-                String killCommand = toKill.stream()
-                        .map(pkg -> "am force-stop " + pkg)
-                        .collect(Collectors.joining("; "));
-                String finalCommand = killCommand + "; am kill-all";
-
-                shellManager.runShellCommandAndGetFullOutput(finalCommand);
-
-                sendKillNotification(toKill.size());
+            }
 
-                // Update widget to reflect new RAM state
-                updateWidget();
+            if (!toKill.isEmpty()) {
+                // Memory before the kill comes from the snapshot already taken for the scan;
+                // without one the executor measures it
+                Map<String, Long> memoryBeforeKb = snapshot != null ? measurePackageMemory(snapshot, toKill) : null;
+                killExecutor.execute(toKill, memoryBeforeKb, true, true, result -> {
+                    List<String> stopped = result.getKilledPackages();
+                    recordSuccessfulKills(result);
+
+                    if (!stopped.isEmpty()) {
+                        sendKillNotification(stopped.size());
+                    }
 
-                // Short delay to allow system to react, then check for relaunches
-                try {
-                    Thread.sleep(RELAUNCH_CHECK_DELAY_MS);
-                } catch (InterruptedException ignored) {
-                }
-                com.northmendo.Appzuku.db.AppDatabase db = com.northmendo.Appzuku.db.AppDatabase.getInstance(context);
-                checkRelaunches(toKill, db);
+                    // Update widget to reflect new RAM state
+                    updateWidget();
+                });
             }
 
             if (onComplete != null)
@@ -197,22 +208,149 @@ public class BackgroundAppManager {
         });
     }
 
-    private void checkRelaunches(List<String> recentlyKilled, com.northmendo.Appzuku.db.AppDatabase db) {
-        String psOutput = shellManager.runShellCommandAndGetFullOutput("ps -A -o name | grep '\\.'");
-        if (psOutput == null)
-            return;
+    /**
+     * Drop packages the system would revive straight away: those running a
+     * foreground service or owning an active media session. Packages whose
+     * services are bound by another app are killed last, and not at all once
+     * they have proven greedy by relaunching more than
+     * {@link AppConstants#RELAUNCH_GREEDY_THRESHOLD} times.
+     */
+    private List<String> applyServicePolicy(List<String> candidates, ServiceStateSnapshot services) {
+        List<String> result = new ArrayList<>(candidates.size());
+        List<String> bound = new ArrayList<>();
+        com.northmendo.Appzuku.db.AppStatsDao dao = null;
+        for (String pkg : candidates) {
+            if (services.hasForegroundService(pkg) || services.hasActiveMediaSession(pkg)) {
+                Log.d(TAG, "Skipping " + pkg + ": foreground service or active media session");
+                continue;
+            }
+            if (!services.isBoundByOtherApp(pkg)) {
+                result.add(pkg);
+                continue;
+            }
+            if (dao == null) {
+                dao = com.northmendo.Appzuku.db.AppDatabase.getInstance(context).appStatsDao();
+            }
+            com.northmendo.Appzuku.db.AppStats stats = dao.getStats(pkg);
+            if (stats != null && stats.relaunchCount > RELAUNCH_GREEDY_THRESHOLD) {
+                Log.d(TAG, "Skipping " + pkg + ": bound by another app and keeps relaunching");
+                continue;
+            }
+            bound.add(pkg);
+        }
+        result.addAll(bound);
+        return result;
+    }
 
-        long now = System.currentTimeMillis();
-        try (BufferedReader reader = new BufferedReader(new StringReader(psOutput))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String pkg = line.trim();
-                if (recentlyKilled.contains(pkg)) {
-                    db.appStatsDao().incrementRelaunch(pkg, now);
+    /**
+     * Pids of each running app package for {@link KillVerifier}, from the
+     * cheapest source available, or null if none is. Blocking. Neither the
+     * event log's live table, which drops stopped packages before they die,
+     * nor the cached snapshot, which may predate the kill, can confirm a death.
+     */
+    private Map<String, Set<Integer>> getRunningProcessesForVerification() {
+        Map<String, Set<Integer>> running = privilegedService.getRunningProcessIds();
+        if (running == null) {
+            ProcessSnapshot snapshot = ProcessSnapshot.capture(shellManager);
+            if (snapshot == null) {
+                return null;
+            }
+            running = new HashMap<>();
+            for (int row = 0; row < snapshot.size(); row++) {
+                String pkg = snapshot.packageName(row);
+                if (pkg != null) {
+                    running.computeIfAbsent(pkg, k -> new HashSet<>()).add(snapshot.pid(row));
                 }
             }
-        } catch (IOException ignored) {
         }
+        return running;
+    }
+
+    /**
+     * One /proc snapshot shared by the list, the RAM refresh, auto-kill and
+     * relaunch checks. Returns null if the shell could not take it.
+     */
+    private ProcessSnapshot getProcessSnapshot() {
+        return queryCache.query(PROCESS_SNAPSHOT_KEY, PROCESS_LIST_CACHE_TTL_MS,
+                () -> ProcessSnapshot.capture(shellManager));
+    }
+
+    /**
+     * Per-package PSS from smaps_rollup when precise memory mode is on, or an
+     * empty map. Blocking.
+     */
+    private Map<String, SmapsRollupReader.Usage> measurePreciseMemory(ProcessSnapshot snapshot) {
+        if (!sharedpreferences.getBoolean(KEY_PRECISE_MEMORY, false)) {
+            return Collections.emptyMap();
+        }
+        return smapsReader.measurePackages(snapshot);
+    }
+
+    /**
+     * Memory of a package in KB: its precise usage if measured, otherwise its
+     * summed RSS. Returns -1 if the package is not running.
+     */
+    private static long getPackageMemoryKb(ProcessSnapshot snapshot, Map<String, SmapsRollupReader.Usage> usage,
+            String packageName) {
+        SmapsRollupReader.Usage precise = usage.get(packageName);
+        return precise != null ? precise.totalKb() : snapshot.getPackageRssKb(packageName);
+    }
+
+    /**
+     * Memory in KB of each of {@code packageNames} that is running, from a
+     * fresh snapshot, or null if none could be taken. Blocking.
+     */
+    private Map<String, Long> measurePackageMemory(Collection<String> packageNames) {
+        ProcessSnapshot snapshot = getProcessSnapshot();
+        return snapshot != null ? measurePackageMemory(snapshot, packageNames) : null;
+    }
+
+    private Map<String, Long> measurePackageMemory(ProcessSnapshot snapshot, Collection<String> packageNames) {
+        Map<String, SmapsRollupReader.Usage> usage = measurePreciseMemory(snapshot);
+        Map<String, Long> memoryKb = new HashMap<>();
+        for (String pkg : packageNames) {
+            long packageKb = getPackageMemoryKb(snapshot, usage, pkg);
+            if (packageKb >= 0) {
+                memoryKb.put(pkg, packageKb);
+            }
+        }
+        return memoryKb;
+    }
+
+    private Set<String> filterInstalledPackages(Set<String> packageNames) {
+        if (packageNames == null) {
+            return null;
+        }
+        Set<String> installed = new HashSet<>();
+        for (String packageName : packageNames) {
+            if (packageName == null || !packageName.contains(".")) {
+                continue;
+            }
+            if (metadataCache.isInstalled(packageName)) {
+                installed.add(packageName);
+            }
+        }
+        return installed;
+    }
+
+    private static List<String> filterSucceeded(List<String> packageNames, boolean[] results) {
+        List<String> succeeded = new ArrayList<>();
+        for (int i = 0; i < packageNames.size() && i < results.length; i++) {
+            if (results[i]) {
+                succeeded.add(packageNames.get(i));
+            }
+        }
+        return succeeded;
+    }
+
+    private static List<String> filterSucceeded(List<String> packageNames, List<ShellManager.ShellResult> results) {
+        List<String> succeeded = new ArrayList<>();
+        for (int i = 0; i < packageNames.size() && i < results.size(); i++) {
+            if (results.get(i).succeeded()) {
+                succeeded.add(packageNames.get(i));
+            }
+        }
+        return succeeded;
     }
 
     private void sendKillNotification(int count) {
@@ -245,38 +383,16 @@ public class BackgroundAppManager {
     public void loadBackgroundApps(Consumer<List<AppModel>> callback) {
         executor.execute(() -> {
             List<AppModel> result = new ArrayList<>();
-            PackageManager packageManager = context.getPackageManager();
-            Set<String> runningPackagesFromPs = new HashSet<>();
-            Set<String> hiddenApps = getHiddenApps();
-            Set<String> whitelistedApps = getWhitelistedApps();
-            Set<String> desiredBackgroundRestrictedApps = getBackgroundRestrictedApps();
+            ProcessSnapshot snapshot = null;
+            KillPolicy policy = policyCompiler.get();
+            Set<String> desiredBackgroundRestrictedApps = policy.getBackgroundRestrictedApps();
             BackgroundRestrictionState backgroundRestrictionState = getBackgroundRestrictionState();
 
-            // Execute shell command to get running processes
+            // Take a process snapshot to get running apps and their RAM
             if (shellManager.hasAnyShellPermission()) {
-                String command = "ps -A -o rss,name | grep '\\.' | grep -v '[-:@]'";
                 try {
-                    String fullOutput = shellManager.runShellCommandAndGetFullOutput(command);
-                    if (fullOutput != null) {
-                        try (BufferedReader reader = new BufferedReader(new StringReader(fullOutput))) {
-                            String line;
-                            while ((line = reader.readLine()) != null) {
-                                String[] parts = line.trim().split("\\s+");
-                                if (parts.length >= 2) {
-                                    String packageName = parts[1].trim();
-                                    String appRam = parts[0].trim();
-                                    if (!packageName.isEmpty() && packageName.contains(".")
-                                            && !packageName.startsWith("ERROR:")) {
-                                        try {
-                                            packageManager.getApplicationInfo(packageName, 0);
-                                            runningPackagesFromPs.add(packageName + ":" + appRam); // Store with RAM
-                                        } catch (PackageManager.NameNotFoundException ignored) {
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    } else {
+                    snapshot = getProcessSnapshot();
+                    if (snapshot == null) {
                         handler.post(() -> Toast
                                 .makeText(context, "Failed to get running apps output", Toast.LENGTH_SHORT).show());
                     }
@@ -288,48 +404,45 @@ public class BackgroundAppManager {
             }
 
             // Process running packages
-            for (String packageEntry : runningPackagesFromPs) {
-                String[] parts = packageEntry.split(":");
-                String packageName = parts[0];
-                long ramUsage = 0;
-                try {
-                    ramUsage = parts.length > 1 ? Long.parseLong(parts[1]) : 0;
-                } catch (NumberFormatException e) {
-                    Log.w(TAG, "Failed to parse RAM value for " + packageName, e);
+            int packageCount = snapshot != null ? snapshot.packageCount() : 0;
+            Map<String, SmapsRollupReader.Usage> preciseUsage = snapshot != null
+                    ? measurePreciseMemory(snapshot)
+                    : Collections.emptyMap();
+            for (int i = 0; i < packageCount; i++) {
+                String packageName = snapshot.packageAt(i);
+                SmapsRollupReader.Usage precise = preciseUsage.get(packageName);
+                long ramUsage = precise != null ? precise.totalKb() : snapshot.packageRssKbAt(i);
+
+                if (policy.isHidden(packageName)) {
+                    continue;
                 }
 
-                try {
-                    if (hiddenApps.contains(packageName)) {
-                        continue;
-                    }
-
-                    // Use centralized protected apps check
-                    boolean isProtected = ProtectedApps.isProtected(context, packageName);
-
-                    ApplicationInfo appInfo = packageManager.getApplicationInfo(packageName, 0);
+                PackageMetadataCache.Metadata metadata = metadataCache.get(packageName);
+                if (metadata == null) {
+                    continue;
+                }
 
-                    boolean isPersistentApp = (appInfo.flags & ApplicationInfo.FLAG_PERSISTENT) != 0;
-                    boolean isSystemApp = (appInfo.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
+                boolean isProtected = policy.isProtected(packageName);
 
-                    if (!showSystemApps && isSystemApp || !showPersistentApps && isPersistentApp) {
-                        continue;
-                    }
+                boolean isPersistentApp = metadata.isPersistent();
+                boolean isSystemApp = metadata.isSystem();
 
-                    AppModel appModel = new AppModel(
-                            packageManager.getApplicationLabel(appInfo).toString(),
-                            packageName,
-                            formatMemorySize(ramUsage),
-                            ramUsage,
-                            packageManager.getApplicationIcon(appInfo),
-                            isSystemApp,
-                            isPersistentApp,
-                            isProtected);
-                    // Set whitelist status
-                    appModel.setWhitelisted(whitelistedApps.contains(packageName));
-                    applyBackgroundRestrictionState(appModel, desiredBackgroundRestrictedApps, backgroundRestrictionState);
-                    result.add(appModel);
-                } catch (PackageManager.NameNotFoundException ignored) {
+                if (!showSystemApps && isSystemApp || !showPersistentApps && isPersistentApp) {
+                    continue;
                 }
+
+                AppModel appModel = new AppModel(
+                        metadata.label,
+                        packageName,
+                        formatMemorySize(ramUsage),
+                        ramUsage,
+                        isSystemApp,
+                        isPersistentApp,
+                        isProtected);
+                // Set whitelist status
+                appModel.setWhitelisted(policy.isWhitelisted(packageName));
+                applyBackgroundRestrictionState(appModel, desiredBackgroundRestrictedApps, backgroundRestrictionState);
+                result.add(appModel);
             }
             sortAppList(result, SORT_MODE_DEFAULT);
 
@@ -355,31 +468,14 @@ public class BackgroundAppManager {
         }
 
         executor.execute(() -> {
-            String psOutput = shellManager.runShellCommandAndGetFullOutput(
-                    "ps -A -o rss,name | grep '\\.' | grep -v '[-:@]'");
-            
-            java.util.Map<String, Long> runningMap = new java.util.HashMap<>();
-            if (psOutput != null) {
-                try (BufferedReader reader = new BufferedReader(new StringReader(psOutput))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        String[] parts = line.trim().split("\\s+");
-                        if (parts.length >= 2) {
-                            String packageName = parts[1].trim();
-                            try {
-                                long ramUsage = Long.parseLong(parts[0].trim());
-                                runningMap.put(packageName, ramUsage);
-                            } catch (NumberFormatException e) {
-                                Log.w(TAG, "Failed to parse RAM value for " + packageName, e);
-                            }
-                        }
-                    }
-                } catch (Exception ignored) {}
-            }
+            ProcessSnapshot snapshot = getProcessSnapshot();
+            Map<String, SmapsRollupReader.Usage> preciseUsage = snapshot != null
+                    ? measurePreciseMemory(snapshot)
+                    : Collections.emptyMap();
             
             for (AppModel app : apps) {
-                if (runningMap.containsKey(app.getPackageName())) {
-                    long ram = runningMap.get(app.getPackageName());
+                long ram = snapshot != null ? getPackageMemoryKb(snapshot, preciseUsage, app.getPackageName()) : -1;
+                if (ram >= 0) {
                     app.setAppRamBytes(ram);
                     app.setAppRam(formatMemorySize(ram));
                 } else {
@@ -428,68 +524,84 @@ public class BackgroundAppManager {
         }
     }
 
-    // Load all installed applications
-    public void loadAllApps(Consumer<List<AppModel>> callback) {
+    /**
+     * Load all installed applications, and the packages in the list
+     * {@code listFlag} ({@code AppPolicy.FLAG_*}), then call back on the main
+     * thread. The list is read here so the main thread never waits for it.
+     */
+    public void loadAllApps(int listFlag, BiConsumer<List<AppModel>, Set<String>> callback) {
         executor.execute(() -> {
-            PackageManager pm = context.getPackageManager();
-            List<ApplicationInfo> packages = pm.getInstalledApplications(PackageManager.GET_META_DATA);
+            Set<String> listed = policyStore.getPackages(listFlag);
             List<AppModel> allApps = new ArrayList<>();
-            for (ApplicationInfo appInfo : packages) {
-                if (appInfo.packageName.equals(context.getPackageName())) {
+            for (PackageMetadataCache.Metadata metadata : metadataCache.getInstalledPackages()) {
+                if (metadata.packageName.equals(context.getPackageName())) {
                     continue;
                 }
-                boolean isSystem = (appInfo.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
-                boolean isPersistent = (appInfo.flags & ApplicationInfo.FLAG_PERSISTENT) != 0;
                 allApps.add(new AppModel(
-                        pm.getApplicationLabel(appInfo).toString(),
-                        appInfo.packageName,
+                        metadata.label,
+                        metadata.packageName,
                         "-", // RAM placeholder
                         0, // Raw RAM bytes
-                        pm.getApplicationIcon(appInfo),
-                        isSystem,
-                        isPersistent,
+                        metadata.isSystem(),
+                        metadata.isPersistent(),
                         false));
             }
             // Sort alphabetically
             Collections.sort(allApps, (a1, a2) -> a1.getAppName().compareToIgnoreCase(a2.getAppName()));
-            handler.post(() -> callback.accept(allApps));
+            handler.post(() -> callback.accept(allApps, listed));
         });
     }
 
-    // Get the set of hidden app package names
-    public Set<String> getHiddenApps() {
-        return new HashSet<>(sharedpreferences.getStringSet(KEY_HIDDEN_APPS, new HashSet<>()));
+    /**
+     * Hand the compiled kill settings to {@code callback} on the main thread.
+     * The same instance is delivered until a setting or the protected set
+     * changes. Compiling may wait for the app lists or the protected set, so
+     * it happens on the interactive lane.
+     */
+    public void getKillPolicy(Consumer<KillPolicy> callback) {
+        interactiveExecutor.execute(() -> {
+            KillPolicy policy = policyCompiler.get();
+            handler.post(() -> callback.accept(policy));
+        });
     }
 
     // Save the set of hidden app package names
     public void saveHiddenApps(Set<String> hiddenApps) {
-        sharedpreferences.edit().putStringSet(KEY_HIDDEN_APPS, new HashSet<>(hiddenApps)).apply();
-    }
-
-    // Get the set of whitelisted (never kill) app package names
-    public Set<String> getWhitelistedApps() {
-        return new HashSet<>(sharedpreferences.getStringSet(KEY_WHITELISTED_APPS, new HashSet<>()));
+        policyStore.replace(com.northmendo.Appzuku.db.AppPolicy.FLAG_HIDDEN, hiddenApps);
     }
 
     // Save the set of whitelisted app package names
     public void saveWhitelistedApps(Set<String> whitelistedApps) {
-        sharedpreferences.edit().putStringSet(KEY_WHITELISTED_APPS, new HashSet<>(whitelistedApps)).apply();
+        policyStore.replace(com.northmendo.Appzuku.db.AppPolicy.FLAG_WHITELISTED, whitelistedApps);
     }
 
-    public Set<String> getBackgroundRestrictedApps() {
-        return new HashSet<>(sharedpreferences.getStringSet(KEY_AUTOSTART_DISABLED_APPS, new HashSet<>()));
+    /**
+     * Hand the packages meant to be restricted to {@code callback} on the
+     * main thread, once the app lists are loaded.
+     */
+    public void getBackgroundRestrictedApps(Consumer<Set<String>> callback) {
+        policyStore.whenLoaded(() -> callback.accept(getBackgroundRestrictedApps()));
     }
 
-    public void saveBackgroundRestrictedApps(Set<String> packageNames) {
-        sharedpreferences.edit().putStringSet(KEY_AUTOSTART_DISABLED_APPS, new HashSet<>(packageNames)).apply();
+    private Set<String> getBackgroundRestrictedApps() {
+        return policyStore.getPackages(com.northmendo.Appzuku.db.AppPolicy.FLAG_BG_RESTRICTED);
     }
 
-    public Set<String> getBlacklistedApps() {
-        return new HashSet<>(sharedpreferences.getStringSet(KEY_BLACKLISTED_APPS, new HashSet<>()));
+    public void saveBackgroundRestrictedApps(Set<String> packageNames) {
+        policyStore.replace(com.northmendo.Appzuku.db.AppPolicy.FLAG_BG_RESTRICTED, packageNames);
     }
 
     public void saveBlacklistedApps(Set<String> apps) {
-        sharedpreferences.edit().putStringSet(KEY_BLACKLISTED_APPS, new HashSet<>(apps)).apply();
+        policyStore.replace(com.northmendo.Appzuku.db.AppPolicy.FLAG_BLACKLISTED, apps);
+    }
+
+    /**
+     * Flip one list membership ({@code AppPolicy.FLAG_*}) of a package and
+     * tell {@code onToggled}, on the main thread, whether it is now in the
+     * list. Only that package's row is written.
+     */
+    public void toggleListMembership(String packageName, int flag, Consumer<Boolean> onToggled) {
+        policyStore.whenLoaded(() -> onToggled.accept(policyStore.toggle(packageName, flag)));
     }
 
     public int getKillMode() {
@@ -501,13 +613,14 @@ public class BackgroundAppManager {
     }
 
     public void setBackgroundRestricted(String packageName, boolean restricted, Runnable onComplete) {
-        Set<String> targetPackages = getBackgroundRestrictedApps();
-        if (restricted) {
-            targetPackages.add(packageName);
-        } else {
-            targetPackages.remove(packageName);
-        }
-        applyBackgroundRestriction(targetPackages, onComplete);
+        getBackgroundRestrictedApps(targetPackages -> {
+            if (restricted) {
+                targetPackages.add(packageName);
+            } else {
+                targetPackages.remove(packageName);
+            }
+            applyBackgroundRestriction(targetPackages, onComplete);
+        });
     }
 
     public void applyBackgroundRestriction(Set<String> targetPackages, Runnable onComplete) {
@@ -539,30 +652,12 @@ public class BackgroundAppManager {
             Set<String> packagesToRestrict = new HashSet<>(desiredPackages);
             packagesToRestrict.removeAll(currentPackages);
 
-            boolean success = true;
-            for (String packageName : packagesToAllow) {
-                ShellManager.ShellResult allowResult = shellManager
-                        .runShellCommandForResult(buildBackgroundRestrictionCommand(packageName, "allow"));
-                if (!allowResult.succeeded()) {
-                    success = false;
-                }
-                logRestrictionResult(packageName, "allow", allowResult, null);
-            }
-
-            for (String packageName : packagesToRestrict) {
-                ShellManager.ShellResult restrictResult = shellManager
-                        .runShellCommandForResult(buildBackgroundRestrictionCommand(packageName, "ignore"));
-                if (!restrictResult.succeeded()) {
-                    success = false;
-                    logRestrictionResult(packageName, "restrict", restrictResult, null);
-                    continue;
-                }
-                ShellManager.ShellResult forceStopResult = shellManager.runShellCommandForResult(FORCE_STOP_COMMAND_PREFIX + packageName);
-                if (!forceStopResult.succeeded()) {
-                    success = false;
-                }
-                logRestrictionResult(packageName, "restrict", restrictResult, forceStopResult);
-            }
+            Boolean serviceSuccess = applyBackgroundRestrictionWithService(packagesToAllow, packagesToRestrict);
+            boolean success = serviceSuccess != null
+                    ? serviceSuccess
+                    : applyBackgroundRestrictionWithShell(packagesToAllow, packagesToRestrict);
+            // App ops and running processes both changed; verify against fresh queries
+            queryCache.invalidate();
 
             BackgroundRestrictionState actualState = getBackgroundRestrictionState();
             for (String packageName : packagesToAllow) {
@@ -585,12 +680,95 @@ public class BackgroundAppManager {
         });
     }
 
+    private boolean applyBackgroundRestrictionWithShell(Set<String> packagesToAllow, Set<String> packagesToRestrict) {
+        List<String> allowList = new ArrayList<>(packagesToAllow);
+        List<String> restrictList = new ArrayList<>(packagesToRestrict);
+        List<String> commands = new ArrayList<>(allowList.size() + restrictList.size());
+        for (String packageName : allowList) {
+            commands.add(buildBackgroundRestrictionCommand(packageName, "allow"));
+        }
+        for (String packageName : restrictList) {
+            commands.add(buildBackgroundRestrictionCommand(packageName, "ignore"));
+        }
+        List<ShellManager.ShellResult> opResults = shellManager.executeBatch(commands);
+        List<ShellManager.ShellResult> restrictResults = opResults.subList(allowList.size(), opResults.size());
+
+        // Only force-stop packages whose app op actually changed
+        List<String> restricted = filterSucceeded(restrictList, restrictResults);
+        List<ShellManager.ShellResult> stopResults = shellManager.executeBatch(KillExecutor.buildForceStopCommands(restricted));
+
+        boolean success = true;
+        for (int i = 0; i < allowList.size(); i++) {
+            ShellManager.ShellResult allowResult = opResults.get(i);
+            success &= allowResult.succeeded();
+            logRestrictionResult(allowList.get(i), "allow", allowResult, null);
+        }
+        int stopIndex = 0;
+        for (int i = 0; i < restrictList.size(); i++) {
+            ShellManager.ShellResult restrictResult = restrictResults.get(i);
+            if (!restrictResult.succeeded()) {
+                success = false;
+                logRestrictionResult(restrictList.get(i), "restrict", restrictResult, null);
+                continue;
+            }
+            ShellManager.ShellResult forceStopResult = stopResults.get(stopIndex++);
+            success &= forceStopResult.succeeded();
+            logRestrictionResult(restrictList.get(i), "restrict", restrictResult, forceStopResult);
+        }
+        return success;
+    }
+
+    /**
+     * Apply app op changes in batched binder calls. Returns null when the
+     * privileged service is not available, so the shell path can take over.
+     */
+    private Boolean applyBackgroundRestrictionWithService(Set<String> packagesToAllow, Set<String> packagesToRestrict) {
+        if (!privilegedService.isAvailable()) {
+            return null;
+        }
+        List<String> allowList = new ArrayList<>(packagesToAllow);
+        List<String> restrictList = new ArrayList<>(packagesToRestrict);
+        boolean[] allowResults = allowList.isEmpty() ? new boolean[0]
+                : privilegedService.setAppOpsMode(allowList, BACKGROUND_RESTRICTION_OPSTR, AppOpsManager.MODE_ALLOWED);
+        boolean[] restrictResults = restrictList.isEmpty() ? new boolean[0]
+                : privilegedService.setAppOpsMode(restrictList, BACKGROUND_RESTRICTION_OPSTR, AppOpsManager.MODE_IGNORED);
+        if (allowResults == null || restrictResults == null) {
+            return null;
+        }
+
+        List<String> restricted = filterSucceeded(restrictList, restrictResults);
+        boolean[] stopResults = restricted.isEmpty() ? new boolean[0]
+                : privilegedService.forceStopPackages(restricted);
+
+        boolean success = true;
+        for (int i = 0; i < allowList.size(); i++) {
+            success &= allowResults[i];
+            logRestrictionResult(allowList.get(i), "allow", binderResult(allowResults[i]), null);
+        }
+        int stopIndex = 0;
+        for (int i = 0; i < restrictList.size(); i++) {
+            if (!restrictResults[i]) {
+                success = false;
+                logRestrictionResult(restrictList.get(i), "restrict", binderResult(false), null);
+                continue;
+            }
+            boolean stopped = stopResults != null && stopResults[stopIndex++];
+            success &= stopped;
+            logRestrictionResult(restrictList.get(i), "restrict", binderResult(true), binderResult(stopped));
+        }
+        return success;
+    }
+
+    private static ShellManager.ShellResult binderResult(boolean succeeded) {
+        return new ShellManager.ShellResult(succeeded, succeeded ? 0 : -1, succeeded ? "" : "binder call failed");
+    }
+
     private String buildBackgroundRestrictionCommand(String packageName, String mode) {
         return "cmd appops set --user current " + packageName + " " + BACKGROUND_RESTRICTION_OP + " " + mode;
     }
 
     public void reapplySavedBackgroundRestrictions(Runnable onComplete) {
-        applyBackgroundRestriction(getBackgroundRestrictedApps(), onComplete);
+        getBackgroundRestrictedApps(targetPackages -> applyBackgroundRestriction(targetPackages, onComplete));
     }
 
     private Set<String> getActualBackgroundRestrictedApps() {
@@ -606,15 +784,15 @@ public class BackgroundAppManager {
         Set<String> restrictedPackages = new HashSet<>();
         boolean querySucceeded = false;
 
-        String ignoreOutput = shellManager.runShellCommandAndGetFullOutput(
-                "cmd appops query-op --user current " + BACKGROUND_RESTRICTION_OP + " ignore");
+        String ignoreOutput = queryCache.getOutput(
+                "cmd appops query-op --user current " + BACKGROUND_RESTRICTION_OP + " ignore", APP_OPS_CACHE_TTL_MS);
         if (ignoreOutput != null) {
             querySucceeded = true;
             mergeBackgroundRestrictedPackages(restrictedPackages, ignoreOutput);
         }
 
-        String denyOutput = shellManager.runShellCommandAndGetFullOutput(
-                "cmd appops query-op --user current " + BACKGROUND_RESTRICTION_OP + " deny");
+        String denyOutput = queryCache.getOutput(
+                "cmd appops query-op --user current " + BACKGROUND_RESTRICTION_OP + " deny", APP_OPS_CACHE_TTL_MS);
         if (denyOutput != null) {
             querySucceeded = true;
             mergeBackgroundRestrictedPackages(restrictedPackages, denyOutput);
@@ -719,18 +897,8 @@ public class BackgroundAppManager {
     }
 
     // Toggle whitelist status for a package
-    public boolean toggleWhitelist(String packageName) {
-        Set<String> whitelisted = getWhitelistedApps();
-        boolean isNowWhitelisted;
-        if (whitelisted.contains(packageName)) {
-            whitelisted.remove(packageName);
-            isNowWhitelisted = false;
-        } else {
-            whitelisted.add(packageName);
-            isNowWhitelisted = true;
-        }
-        saveWhitelistedApps(whitelisted);
-        return isNowWhitelisted;
+    public void toggleWhitelist(String packageName, Consumer<Boolean> onToggled) {
+        toggleListMembership(packageName, com.northmendo.Appzuku.db.AppPolicy.FLAG_WHITELISTED, onToggled);
     }
 
     // Kill specified packages using shell
@@ -749,41 +917,23 @@ public class BackgroundAppManager {
             }
             return;
         }
-        long totalKb = 0;
-        Map<String, Long> recoveredKbByPackage = new HashMap<>();
-        for (String pkg : packageNames) {
-            long appRamKb = 0;
-            for (AppModel app : currentAppsList) {
-                if (app.getPackageName().equals(pkg)) {
-                    appRamKb = app.getAppRamBytes();
-                    break;
+        final List<String> packagesToKill = new ArrayList<>(packageNames);
+        interactiveExecutor.execute(() -> killExecutor.execute(packagesToKill, null, false, false, result -> {
+            recordSuccessfulKills(result);
+            boolean stopped = !result.getSucceededPackages().isEmpty();
+            long reclaimedKb = result.getReclaimedKb();
+            handler.post(() -> {
+                if (!stopped) {
+                    Toast.makeText(context, "Failed to kill selected apps", Toast.LENGTH_SHORT).show();
+                } else if (reclaimedKb > 0) {
+                    String message = "Free up " + formatMemorySize(reclaimedKb);
+                    Toast.makeText(context, message, Toast.LENGTH_LONG).show();
                 }
-            }
-            if (appRamKb > 0) {
-                recoveredKbByPackage.put(pkg, appRamKb);
-                totalKb += appRamKb;
-            }
-        }
-
-        String command = packageNames.stream()
-                .map(pkg -> "am force-stop " + pkg)
-                .collect(Collectors.joining("; "));
-        final long finalTotalKb = totalKb;
-        final List<String> packagesToLog = new ArrayList<>(packageNames);
-        final Map<String, Long> recoveredToLog = new HashMap<>(recoveredKbByPackage);
-        shellManager.runShellCommand(command, () -> {
-            executor.execute(() -> recordSuccessfulKills(packagesToLog, recoveredToLog));
-            String message = "Free up " + formatMemorySize(finalTotalKb);
-            Toast.makeText(context, message, Toast.LENGTH_LONG).show();
-            if (onComplete != null) {
-                onComplete.run();
-            }
-        }, () -> {
-            Toast.makeText(context, "Failed to kill selected apps", Toast.LENGTH_SHORT).show();
-            if (onComplete != null) {
-                onComplete.run();
-            }
-        });
+                if (onComplete != null) {
+                    onComplete.run();
+                }
+            });
+        }));
 
     }
 
@@ -802,35 +952,22 @@ public class BackgroundAppManager {
             }
             return;
         }
-        // Find the app's RAM before killing
-        long appRamBytes = 0;
-        for (AppModel app : currentAppsList) {
-            if (app.getPackageName().equals(packageName)) {
-                appRamBytes = app.getAppRamBytes();
-                break;
-            }
-        }
-        final String packageToKill = packageName;
-        final Map<String, Long> recoveredKbByPackage = new HashMap<>();
-        if (appRamBytes > 0) {
-            recoveredKbByPackage.put(packageToKill, appRamBytes);
-        }
-        final long finalAppRamBytes = appRamBytes;
-        shellManager.runShellCommand("am force-stop " + packageToKill, () -> {
-            executor.execute(() -> recordSuccessfulKills(Collections.singletonList(packageToKill), recoveredKbByPackage));
-            if (finalAppRamBytes > 0) {
-                String message = "Free up " + formatMemorySize(finalAppRamBytes);
-                Toast.makeText(context, message, Toast.LENGTH_LONG).show();
-            }
-            if (onComplete != null) {
-                onComplete.run();
-            }
-        }, () -> {
-            Toast.makeText(context, "Failed to stop " + packageName, Toast.LENGTH_SHORT).show();
-            if (onComplete != null) {
-                onComplete.run();
-            }
-        });
+        interactiveExecutor.execute(() -> killExecutor.execute(Collections.singletonList(packageName), null, false, false, result -> {
+            recordSuccessfulKills(result);
+            boolean stopped = !result.getSucceededPackages().isEmpty();
+            long reclaimedKb = result.getReclaimedKb();
+            handler.post(() -> {
+                if (!stopped) {
+                    Toast.makeText(context, "Failed to stop " + packageName, Toast.LENGTH_SHORT).show();
+                } else if (reclaimedKb > 0) {
+                    String message = "Free up " + formatMemorySize(reclaimedKb);
+                    Toast.makeText(context, message, Toast.LENGTH_LONG).show();
+                }
+                if (onComplete != null) {
+                    onComplete.run();
+                }
+            });
+        }));
     }
 
     // Uninstall an app using shell command
@@ -894,14 +1031,23 @@ public class BackgroundAppManager {
         });
     }
 
-    private void recordSuccessfulKills(List<String> packageNames, Map<String, Long> recoveredKbByPackage) {
-        if (packageNames == null || packageNames.isEmpty()) {
+    /**
+     * Count the kills confirmed by {@code result} and credit each one with the
+     * memory it measurably freed. Packages that were not running, or that
+     * refused or survived the stop, are not recorded.
+     */
+    private void recordSuccessfulKills(KillExecutor.Result result) {
+        List<String> packageNames = result.getKilledPackages();
+        if (packageNames.isEmpty()) {
             return;
         }
+        Map<String, Long> recoveredKbByPackage = new HashMap<>();
+        for (KillExecutor.Outcome outcome : result.outcomes) {
+            recoveredKbByPackage.merge(outcome.packageName, outcome.reclaimedKb(), Long::sum);
+        }
 
         com.northmendo.Appzuku.db.AppStatsDao appStatsDao =
                 com.northmendo.Appzuku.db.AppDatabase.getInstance(context).appStatsDao();
-        PackageManager packageManager = context.getPackageManager();
         long now = System.currentTimeMillis();
 
         Set<String> uniquePackages = new HashSet<>(packageNames);
@@ -911,7 +1057,7 @@ public class BackgroundAppManager {
             }
 
             com.northmendo.Appzuku.db.AppStats stats = appStatsDao.getStats(packageName);
-            String appName = resolveInstalledAppName(packageManager, packageName);
+            String appName = metadataCache.getLabel(packageName);
 
             if (stats == null) {
                 stats = new com.northmendo.Appzuku.db.AppStats(packageName);
@@ -924,25 +1070,13 @@ public class BackgroundAppManager {
 
             appStatsDao.incrementKill(packageName, now);
 
-            long recoveredKb = recoveredKbByPackage != null ? recoveredKbByPackage.getOrDefault(packageName, 0L) : 0L;
+            long recoveredKb = recoveredKbByPackage.getOrDefault(packageName, 0L);
             if (recoveredKb > 0) {
                 appStatsDao.addRecoveredKb(packageName, recoveredKb);
             }
         }
     }
 
-    private String resolveInstalledAppName(PackageManager packageManager, String packageName) {
-        try {
-            ApplicationInfo appInfo = packageManager.getApplicationInfo(packageName, 0);
-            CharSequence label = packageManager.getApplicationLabel(appInfo);
-            if (label != null) {
-                return label.toString();
-            }
-        } catch (PackageManager.NameNotFoundException ignored) {
-        }
-        return null;
-    }
-
     /**
      * Updates the home screen widget to reflect current RAM state.
      */
@@ -23,6 +23,7 @@ public class BackgroundAppsRecyclerViewAdapter extends ListAdapter<AppModel, Bac
 
     private final Context context;
     private final int density;
+    private final AppIconLoader iconLoader;
     private OnAppActionListener actionListener;
 
     public interface OnAppActionListener {
@@ -36,6 +37,7 @@ public class BackgroundAppsRecyclerViewAdapter extends ListAdapter<AppModel, Bac
         super(new AppDiffCallback());
         this.context = context;
         this.density = (int) context.getResources().getDisplayMetrics().density;
+        this.iconLoader = AppIconLoader.getInstance(context);
     }
 
     public void setOnAppActionListener(OnAppActionListener listener) {
@@ -54,6 +56,11 @@ public class BackgroundAppsRecyclerViewAdapter extends ListAdapter<AppModel, Bac
         holder.bind(getItem(position), position);
     }
 
+    @Override
+    public void onViewRecycled(@NonNull ViewHolder holder) {
+        iconLoader.cancel(holder.binding.appIcon);
+    }
+
     class ViewHolder extends RecyclerView.ViewHolder {
         private final ItemBinding binding;
 
@@ -66,7 +73,7 @@ public class BackgroundAppsRecyclerViewAdapter extends ListAdapter<AppModel, Bac
             binding.appName.setText(app.getAppName());
             binding.appPkg.setText(app.getPackageName());
             binding.appRam.setText(app.getAppRam());
-            binding.appIcon.setImageDrawable(app.getAppIcon());
+            iconLoader.load(binding.appIcon, app.getPackageName());
 
             binding.whitelistIcon.setVisibility(app.isWhitelisted() ? View.VISIBLE : View.GONE);
             binding.imageview2.setBackground(createButtonBackground());
@@ -2,6 +2,9 @@ package com.northmendo.Appzuku;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+
+import com.northmendo.Appzuku.db.AppPolicy;
+
 import org.json.JSONArray;
 import org.json.JSONObject;
 import java.util.HashSet;
@@ -15,9 +18,11 @@ public class BackupManager {
     private static final String KEY_SYSTEM_APPS_WARNING_SHOWN = "system_apps_warning_shown";
 
     private final SharedPreferences prefs;
+    private final AppPolicyStore policyStore;
 
     public BackupManager(Context context) {
         this.prefs = context.getSharedPreferences(PreferenceKeys.PREFERENCES_NAME, Context.MODE_PRIVATE);
+        this.policyStore = AppPolicyStore.getInstance(context);
     }
 
     public String createBackupJson() {
@@ -25,10 +30,11 @@ public class BackupManager {
             JSONObject root = new JSONObject();
             root.put(KEY_BACKUP_VERSION, BACKUP_VERSION);
 
-            putStringSet(root, KEY_HIDDEN_APPS);
-            putStringSet(root, KEY_WHITELISTED_APPS);
-            putStringSet(root, KEY_BLACKLISTED_APPS);
-            putStringSet(root, KEY_AUTOSTART_DISABLED_APPS);
+            // App lists keep their old preference keys, so older backups stay compatible
+            putAppList(root, KEY_HIDDEN_APPS, AppPolicy.FLAG_HIDDEN);
+            putAppList(root, KEY_WHITELISTED_APPS, AppPolicy.FLAG_WHITELISTED);
+            putAppList(root, KEY_BLACKLISTED_APPS, AppPolicy.FLAG_BLACKLISTED);
+            putAppList(root, KEY_AUTOSTART_DISABLED_APPS, AppPolicy.FLAG_BG_RESTRICTED);
 
             root.put(KEY_KILL_MODE, prefs.getInt(KEY_KILL_MODE, 0));
             root.put(KEY_AUTO_KILL_ENABLED, prefs.getBoolean(KEY_AUTO_KILL_ENABLED, false));
@@ -39,6 +45,7 @@ public class BackupManager {
             root.put(KEY_RAM_THRESHOLD_ENABLED, prefs.getBoolean(KEY_RAM_THRESHOLD_ENABLED, false));
             root.put(KEY_SHOW_SYSTEM_APPS, prefs.getBoolean(KEY_SHOW_SYSTEM_APPS, false));
             root.put(KEY_SHOW_PERSISTENT_APPS, prefs.getBoolean(KEY_SHOW_PERSISTENT_APPS, false));
+            root.put(KEY_PRECISE_MEMORY, prefs.getBoolean(KEY_PRECISE_MEMORY, false));
             root.put(KEY_THEME, prefs.getInt(KEY_THEME,
                     androidx.appcompat.app.AppCompatDelegate.MODE_NIGHT_FOLLOW_SYSTEM));
             root.put(KEY_SORT_MODE, prefs.getInt(KEY_SORT_MODE, AppConstants.SORT_MODE_DEFAULT));
@@ -55,10 +62,10 @@ public class BackupManager {
             JSONObject root = new JSONObject(json);
             SharedPreferences.Editor editor = prefs.edit();
 
-            restoreSet(editor, root, KEY_HIDDEN_APPS);
-            restoreSet(editor, root, KEY_WHITELISTED_APPS);
-            restoreSet(editor, root, KEY_BLACKLISTED_APPS);
-            restoreSet(editor, root, KEY_AUTOSTART_DISABLED_APPS);
+            restoreAppList(root, KEY_HIDDEN_APPS, AppPolicy.FLAG_HIDDEN);
+            restoreAppList(root, KEY_WHITELISTED_APPS, AppPolicy.FLAG_WHITELISTED);
+            restoreAppList(root, KEY_BLACKLISTED_APPS, AppPolicy.FLAG_BLACKLISTED);
+            restoreAppList(root, KEY_AUTOSTART_DISABLED_APPS, AppPolicy.FLAG_BG_RESTRICTED);
             restoreInt(editor, root, KEY_KILL_MODE);
             restoreBoolean(editor, root, KEY_AUTO_KILL_ENABLED);
             restoreBoolean(editor, root, KEY_PERIODIC_KILL_ENABLED);
@@ -68,6 +75,7 @@ public class BackupManager {
             restoreBoolean(editor, root, KEY_RAM_THRESHOLD_ENABLED);
             restoreBoolean(editor, root, KEY_SHOW_SYSTEM_APPS);
             restoreBoolean(editor, root, KEY_SHOW_PERSISTENT_APPS);
+            restoreBoolean(editor, root, KEY_PRECISE_MEMORY);
             restoreInt(editor, root, KEY_THEME);
             restoreInt(editor, root, KEY_SORT_MODE);
             restoreBoolean(editor, root, KEY_SYSTEM_APPS_WARNING_SHOWN);
@@ -80,21 +88,19 @@ public class BackupManager {
         }
     }
 
-    private void restoreSet(SharedPreferences.Editor editor, JSONObject root, String key) throws Exception {
+    private void restoreAppList(JSONObject root, String key, int flag) throws Exception {
         if (root.has(key)) {
             JSONArray array = root.getJSONArray(key);
             Set<String> set = new HashSet<>();
             for (int i = 0; i < array.length(); i++) {
                 set.add(array.getString(i));
             }
-            editor.putStringSet(key, set);
+            policyStore.replace(flag, set);
         }
     }
 
-    private void putStringSet(JSONObject root, String key) throws Exception {
-        Set<String> stored = prefs.getStringSet(key, new HashSet<>());
-        Set<String> set = stored == null ? new HashSet<>() : new HashSet<>(stored);
-        root.put(key, new JSONArray(set));
+    private void putAppList(JSONObject root, String key, int flag) throws Exception {
+        root.put(key, new JSONArray(policyStore.getPackages(flag)));
     }
 
     private void restoreBoolean(SharedPreferences.Editor editor, JSONObject root, String key) throws Exception {
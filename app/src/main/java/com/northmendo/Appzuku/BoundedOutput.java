@@ -0,0 +1,52 @@
+package com.northmendo.Appzuku;
+
+import java.util.ArrayDeque;
+
+/**
+ * Line buffer for captured shell output that never grows past its
+ * {@link ShellManager.OutputLimit}. In head mode lines past the limit are
+ * dropped; in tail mode the oldest lines are evicted, ring-buffer style.
+ * Sizes are counted in characters, which matches bytes for the ASCII output
+ * of am, ps and dumpsys.
+ */
+final class BoundedOutput {
+    private final ShellManager.OutputLimit limit;
+    private final ArrayDeque<String> lines = new ArrayDeque<>();
+    private long size;
+    private boolean truncated;
+
+    BoundedOutput(ShellManager.OutputLimit limit) {
+        this.limit = limit;
+    }
+
+    synchronized void append(String line) {
+        long cost = line.length() + 1L;
+        if (!limit.keepsTail()) {
+            if (size + cost > limit.maxChars()) {
+                truncated = true;
+                return;
+            }
+            lines.addLast(line);
+            size += cost;
+            return;
+        }
+        lines.addLast(line);
+        size += cost;
+        while (size > limit.maxChars() && !lines.isEmpty()) {
+            size -= lines.removeFirst().length() + 1L;
+            truncated = true;
+        }
+    }
+
+    synchronized boolean isTruncated() {
+        return truncated;
+    }
+
+    synchronized String text() {
+        StringBuilder text = new StringBuilder((int) size);
+        for (String line : lines) {
+            text.append(line).append('\n');
+        }
+        return text.toString();
+    }
+}
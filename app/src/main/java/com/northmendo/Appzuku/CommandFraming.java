@@ -0,0 +1,180 @@
+package com.northmendo.Appzuku;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Frames shell commands with unique sentinels so several of them can share one
+ * shell process, and splits the shell's stdout and stderr back into one
+ * {@link ShellManager.ShellResult} per command.
+ * <p>
+ * Each framed command prints a start sentinel, runs in a subshell with stdin
+ * detached, then prints the end sentinel with its exit code on stdout and a
+ * bare end sentinel on stderr. Stdout is read by the caller while a
+ * {@link StderrPump} drains stderr concurrently.
+ * <p>
+ * The subshell keeps {@code exit}, {@code exec}, {@code cd}, {@code set -e}
+ * and variable assignments from reaching the shared shell. It cannot contain
+ * a command that does not parse on its own: an unclosed quote, bracket or
+ * here-document swallows the framing after it, and the shell has to be
+ * killed by the watchdog.
+ */
+final class CommandFraming {
+    private static final String TAG = "CommandFraming";
+    private static final String SENTINEL_PREFIX = "__APPZUKU_";
+    private static final AtomicLong counter = new AtomicLong();
+
+    // Threads that drain shell stderr; idle threads time out
+    private static final ExecutorService drainExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "ShellStderrDrain");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private CommandFraming() {
+    }
+
+    static String newSentinel() {
+        return SENTINEL_PREFIX + counter.incrementAndGet() + "_" + System.nanoTime();
+    }
+
+    /**
+     * Start draining {@code stderr} on a background thread.
+     */
+    static StderrPump startPump(BufferedReader stderr) {
+        StderrPump pump = new StderrPump(stderr);
+        drainExecutor.execute(pump);
+        return pump;
+    }
+
+    static String frame(String command, String sentinel) {
+        // stdin is redirected so a command can never swallow the framing of the next one.
+        // The leading newline terminates output that does not end with one; it is
+        // dropped again when the sentinel is read.
+        return "echo " + sentinel + "\n"
+                + "(\n" + command + "\n) </dev/null\n"
+                + "printf '\\n%s %d\\n' " + sentinel + " $?\n"
+                + "printf '\\n%s\\n' " + sentinel + " >&2\n";
+    }
+
+    /**
+     * A list of commands framed into one script, plus the per-command capture
+     * state needed to read their results back.
+     */
+    static final class Batch {
+        final String script;
+        private final List<String> sentinels;
+        private final List<BoundedOutput> errors;
+        private final List<StderrPump.Sink> sinks;
+
+        Batch(List<String> commands) {
+            sentinels = new ArrayList<>(commands.size());
+            errors = new ArrayList<>(commands.size());
+            sinks = new ArrayList<>(commands.size());
+            StringBuilder builder = new StringBuilder();
+            for (String command : commands) {
+                String sentinel = newSentinel();
+                sentinels.add(sentinel);
+                builder.append(frame(command, sentinel));
+            }
+            script = builder.toString();
+        }
+
+        /**
+         * Route the batch's stderr through {@code pump}. Must be called before
+         * the script is written.
+         */
+        void attach(StderrPump pump, ShellManager.OutputLimit limit, Consumer<String> stderrConsumer) {
+            for (String sentinel : sentinels) {
+                BoundedOutput error = new BoundedOutput(limit);
+                errors.add(error);
+                sinks.add(pump.register(sentinel, error, stderrConsumer));
+            }
+        }
+
+        /**
+         * Read the results of every command in order. Stdout lines are passed to
+         * {@code stdoutConsumer} on the calling thread. Each command gets the
+         * full timeout of {@code watch}; once the watch trips, the command that
+         * was running and every command after it get its timed-out or cancelled
+         * result.
+         *
+         * @throws IOException if the shell ends before every command reported back
+         */
+        List<ShellManager.ShellResult> readResults(BufferedReader stdout, ShellManager.OutputLimit limit,
+                Consumer<String> stdoutConsumer, ShellWatchdog.Watch watch)
+                throws IOException, InterruptedException {
+            List<ShellManager.ShellResult> results = new ArrayList<>(sentinels.size());
+            try {
+                for (int i = 0; i < sentinels.size(); i++) {
+                    watch.restart();
+                    BoundedOutput out = new BoundedOutput(limit);
+                    int exitCode = readStdout(stdout, sentinels.get(i), out, stdoutConsumer);
+                    sinks.get(i).await();
+                    BoundedOutput err = errors.get(i);
+                    results.add(new ShellManager.ShellResult(exitCode == 0, exitCode, out.text(), err.text(),
+                            out.isTruncated() || err.isTruncated()));
+                }
+            } catch (IOException e) {
+                if (!watch.tripped()) {
+                    throw e;
+                }
+                while (results.size() < sentinels.size()) {
+                    results.add(watch.trippedResult());
+                }
+            }
+            return results;
+        }
+    }
+
+    private static int readStdout(BufferedReader stdout, String sentinel, BoundedOutput output,
+            Consumer<String> lineConsumer) throws IOException {
+        String line;
+        // Skip anything left over before our start sentinel
+        while ((line = stdout.readLine()) != null && !line.equals(sentinel)) {
+            Log.w(TAG, "Discarding stray shell output: " + line);
+        }
+        if (line == null) {
+            throw new IOException("Shell exited before command started");
+        }
+
+        String pending = null;
+        while ((line = stdout.readLine()) != null) {
+            if (line.startsWith(sentinel + " ")) {
+                if (pending != null && !pending.isEmpty()) {
+                    appendLine(output, pending, lineConsumer);
+                }
+                return parseExitCode(line.substring(sentinel.length() + 1));
+            }
+            if (pending != null) {
+                appendLine(output, pending, lineConsumer);
+            }
+            pending = line;
+        }
+        throw new IOException("Shell exited while running command");
+    }
+
+    private static void appendLine(BoundedOutput output, String line, Consumer<String> lineConsumer) {
+        output.append(line);
+        if (lineConsumer != null) {
+            lineConsumer.accept(line);
+        }
+    }
+
+    private static int parseExitCode(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Unexpected exit code from shell: " + value);
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.northmendo.Appzuku;
+
+import android.app.WallpaperInfo;
+import android.app.WallpaperManager;
+import android.app.admin.DevicePolicyManager;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ResolveInfo;
+import android.database.ContentObserver;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.net.VpnService;
+import android.os.Build;
+import android.provider.Settings;
+import android.provider.Telephony;
+import android.telecom.TelecomManager;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Packages holding a role the user would notice losing: the default dialer
+ * and SMS app, the assistant, enabled accessibility services and
+ * notification listeners, the active VPN, device admins and the live
+ * wallpaper. Killing these either breaks something visible or makes the
+ * system restart them right away.
+ * <p>
+ * Other apps' role holders cannot be listed through RoleManager without a
+ * system permission, so each role is read from its own public API or from
+ * the secure setting the role service keeps in sync. Every source is watched
+ * for changes, which are reported through the callback given to the
+ * constructor.
+ */
+final class CriticalRoleResolver {
+    private static final String TAG = "CriticalRoleResolver";
+
+    // Secure settings behind the roles, some of them not public API
+    private static final String SETTING_ASSISTANT = "assistant";
+    private static final String SETTING_VOICE_INTERACTION_SERVICE = "voice_interaction_service";
+    private static final String SETTING_NOTIFICATION_LISTENERS = "enabled_notification_listeners";
+    private static final String SETTING_ALWAYS_ON_VPN_APP = "always_on_vpn_app";
+    private static final String SETTING_SMS_DEFAULT = "sms_default_application";
+    private static final String SETTING_DIALER_DEFAULT = "dialer_default_application";
+    private static final String[] OBSERVED_SETTINGS = {
+            Settings.Secure.ENABLED_ACCESSIBILITY_SERVICES,
+            SETTING_ASSISTANT,
+            SETTING_VOICE_INTERACTION_SERVICE,
+            SETTING_NOTIFICATION_LISTENERS,
+            SETTING_ALWAYS_ON_VPN_APP,
+            SETTING_SMS_DEFAULT,
+            SETTING_DIALER_DEFAULT
+    };
+    private static final String ACTION_DEVICE_POLICY_MANAGER_STATE_CHANGED =
+            "android.app.action.DEVICE_POLICY_MANAGER_STATE_CHANGED";
+
+    private final Context context;
+    // Guarded by this. VPN networks currently up
+    private final Set<Network> vpnNetworks = new HashSet<>();
+
+    CriticalRoleResolver(Context context, Runnable onChange) {
+        this.context = context;
+
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange.run();
+            }
+        };
+        for (String setting : OBSERVED_SETTINGS) {
+            context.getContentResolver().registerContentObserver(
+                    Settings.Secure.getUriFor(setting), false, observer);
+        }
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_WALLPAPER_CHANGED);
+        filter.addAction(TelecomManager.ACTION_DEFAULT_DIALER_CHANGED);
+        filter.addAction(ACTION_DEVICE_POLICY_MANAGER_STATE_CHANGED);
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                onChange.run();
+            }
+        }, filter);
+
+        ConnectivityManager connectivityManager = context.getSystemService(ConnectivityManager.class);
+        if (connectivityManager != null) {
+            NetworkRequest vpnRequest = new NetworkRequest.Builder()
+                    .addTransportType(NetworkCapabilities.TRANSPORT_VPN)
+                    .removeCapability(NetworkCapabilities.NET_CAPABILITY_NOT_VPN)
+                    .build();
+            try {
+                connectivityManager.registerNetworkCallback(vpnRequest, new ConnectivityManager.NetworkCallback() {
+                    @Override
+                    public void onAvailable(Network network) {
+                        synchronized (CriticalRoleResolver.this) {
+                            vpnNetworks.add(network);
+                        }
+                        onChange.run();
+                    }
+
+                    @Override
+                    public void onLost(Network network) {
+                        synchronized (CriticalRoleResolver.this) {
+                            vpnNetworks.remove(network);
+                        }
+                        onChange.run();
+                    }
+                });
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Unable to watch VPN networks", e);
+            }
+        }
+    }
+
+    /**
+     * Resolve every role holder now. Each source that fails is skipped.
+     */
+    Set<String> resolve() {
+        Set<String> packages = new HashSet<>();
+        addDefaultApps(packages);
+        addPackage(packages, getSecureSetting(SETTING_ASSISTANT));
+        addPackage(packages, getSecureSetting(SETTING_VOICE_INTERACTION_SERVICE));
+        addComponentList(packages, getSecureSetting(Settings.Secure.ENABLED_ACCESSIBILITY_SERVICES));
+        addComponentList(packages, getSecureSetting(SETTING_NOTIFICATION_LISTENERS));
+        addVpnApps(packages);
+        addDeviceAdmins(packages);
+        addLiveWallpaper(packages);
+        packages.remove("");
+        return packages;
+    }
+
+    private void addDefaultApps(Set<String> packages) {
+        try {
+            TelecomManager telecomManager = context.getSystemService(TelecomManager.class);
+            if (telecomManager != null) {
+                addPackage(packages, telecomManager.getDefaultDialerPackage());
+            }
+            addPackage(packages, Telephony.Sms.getDefaultSmsPackage(context));
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Unable to resolve the default dialer and SMS apps", e);
+        }
+    }
+
+    /**
+     * The always-on VPN app, and the owner of any VPN that is up. The owner
+     * uid of another app's VPN is usually hidden, in which case every
+     * installed VPN service is kept while a VPN is up.
+     */
+    private void addVpnApps(Set<String> packages) {
+        addPackage(packages, getSecureSetting(SETTING_ALWAYS_ON_VPN_APP));
+        Set<Network> networks;
+        synchronized (this) {
+            networks = new HashSet<>(vpnNetworks);
+        }
+        if (networks.isEmpty()) {
+            return;
+        }
+        ConnectivityManager connectivityManager = context.getSystemService(ConnectivityManager.class);
+        boolean ownerFound = false;
+        if (connectivityManager != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            for (Network network : networks) {
+                NetworkCapabilities capabilities = connectivityManager.getNetworkCapabilities(network);
+                int ownerUid = capabilities != null ? capabilities.getOwnerUid() : -1;
+                String[] owners = ownerUid >= 0 ? context.getPackageManager().getPackagesForUid(ownerUid) : null;
+                if (owners != null) {
+                    for (String owner : owners) {
+                        ownerFound |= packages.add(owner);
+                    }
+                }
+            }
+        }
+        if (!ownerFound) {
+            List<ResolveInfo> services = context.getPackageManager()
+                    .queryIntentServices(new Intent(VpnService.SERVICE_INTERFACE), 0);
+            for (ResolveInfo service : services) {
+                if (service.serviceInfo != null) {
+                    packages.add(service.serviceInfo.packageName);
+                }
+            }
+        }
+    }
+
+    private void addDeviceAdmins(Set<String> packages) {
+        DevicePolicyManager devicePolicyManager = context.getSystemService(DevicePolicyManager.class);
+        List<ComponentName> admins = devicePolicyManager != null ? devicePolicyManager.getActiveAdmins() : null;
+        if (admins != null) {
+            for (ComponentName admin : admins) {
+                packages.add(admin.getPackageName());
+            }
+        }
+    }
+
+    private void addLiveWallpaper(Set<String> packages) {
+        try {
+            WallpaperInfo wallpaper = WallpaperManager.getInstance(context).getWallpaperInfo();
+            if (wallpaper != null) {
+                packages.add(wallpaper.getPackageName());
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Unable to resolve the live wallpaper", e);
+        }
+    }
+
+    /**
+     * Value of a secure setting, or null if it is unset or this app may not
+     * read it.
+     */
+    private String getSecureSetting(String name) {
+        try {
+            return Settings.Secure.getString(context.getContentResolver(), name);
+        } catch (SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Add the package of a "package" or "package/component" value.
+     */
+    private static void addPackage(Set<String> packages, String value) {
+        if (value == null) {
+            return;
+        }
+        int slash = value.indexOf('/');
+        packages.add((slash >= 0 ? value.substring(0, slash) : value).trim());
+    }
+
+    /**
+     * Add the packages of a colon-separated list of flattened component names.
+     */
+    private static void addComponentList(Set<String> packages, String value) {
+        if (value == null) {
+            return;
+        }
+        for (String component : value.split(":")) {
+            addPackage(packages, component);
+        }
+    }
+}
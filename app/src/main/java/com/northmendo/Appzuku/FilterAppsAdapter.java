@@ -23,6 +23,7 @@ public class FilterAppsAdapter extends BaseAdapter implements Filterable {
     private final List<AppModel> allApps;
     private List<AppModel> filteredApps;
     private final LayoutInflater inflater;
+    private final AppIconLoader iconLoader;
     private AppFilter filter;
     
     // Filter flags
@@ -33,6 +34,7 @@ public class FilterAppsAdapter extends BaseAdapter implements Filterable {
 
     public FilterAppsAdapter(Context context, List<AppModel> apps, Set<String> selectedApps) {
         this.inflater = LayoutInflater.from(context);
+        this.iconLoader = AppIconLoader.getInstance(context);
 
         Collections.sort(apps, new Comparator<AppModel>() {
             @Override
@@ -122,7 +124,7 @@ public class FilterAppsAdapter extends BaseAdapter implements Filterable {
             holder.appStatus.setVisibility(View.VISIBLE);
             holder.appStatus.setText(statusText);
         }
-        holder.appIcon.setImageDrawable(app.getAppIcon());
+        iconLoader.load(holder.appIcon, app.getPackageName());
         holder.checkBox.setChecked(app.isSelected());
 
         // Handle both checkbox clicks and row clicks uniformly
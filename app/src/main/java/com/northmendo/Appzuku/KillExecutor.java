@@ -0,0 +1,237 @@
+package com.northmendo.Appzuku;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Force-stops packages and reports what happened to each one. Memory is
+ * measured before the stop; {@link KillVerifier} then polls for the deaths
+ * with backoff, without holding a thread, and the outcome is settled from
+ * what it saw. A package only counts as {@link Status#STOPPED} once it has
+ * been seen gone, and only then is its memory reported as reclaimed.
+ */
+final class KillExecutor {
+    private static final String TAG = "KillExecutor";
+    private static final String FORCE_STOP_COMMAND_PREFIX = "am force-stop ";
+
+    enum Status {
+        /** Was running and is gone after the force-stop */
+        STOPPED,
+        /** Died, but was running again under new pids before it was seen gone */
+        RELAUNCHED,
+        /** Force-stopped, but had no running process to begin with, or none known */
+        NOT_RUNNING,
+        /** The system refused the force-stop */
+        DENIED,
+        /** The force-stop failed, or the package kept a process it had before */
+        FAILED
+    }
+
+    /**
+     * Memory in KB of each given package that is running, or null if it
+     * could not be measured. Blocking.
+     */
+    interface MemoryProbe {
+        Map<String, Long> measure(Collection<String> packageNames);
+    }
+
+    static final class Outcome {
+        final String packageName;
+        final Status status;
+        // -1 when unknown
+        final long memoryBeforeKb;
+        final long memoryAfterKb;
+
+        Outcome(String packageName, Status status, long memoryBeforeKb, long memoryAfterKb) {
+            this.packageName = packageName;
+            this.status = status;
+            this.memoryBeforeKb = memoryBeforeKb;
+            this.memoryAfterKb = memoryAfterKb;
+        }
+
+        /**
+         * Memory confirmed freed by this kill, or 0 if none was.
+         */
+        long reclaimedKb() {
+            return status == Status.STOPPED && memoryBeforeKb > 0 ? memoryBeforeKb : 0;
+        }
+    }
+
+    static final class Result {
+        final List<Outcome> outcomes;
+
+        Result(List<Outcome> outcomes) {
+            this.outcomes = Collections.unmodifiableList(outcomes);
+        }
+
+        List<String> getPackages(Status status) {
+            List<String> packageNames = new ArrayList<>();
+            for (Outcome outcome : outcomes) {
+                if (outcome.status == status) {
+                    packageNames.add(outcome.packageName);
+                }
+            }
+            return packageNames;
+        }
+
+        /**
+         * Packages whose running processes were killed, whether or not they
+         * came back.
+         */
+        List<String> getKilledPackages() {
+            List<String> packageNames = getPackages(Status.STOPPED);
+            packageNames.addAll(getPackages(Status.RELAUNCHED));
+            return packageNames;
+        }
+
+        /**
+         * Packages the force-stop worked on, including those that had
+         * nothing running to stop.
+         */
+        List<String> getSucceededPackages() {
+            List<String> packageNames = getKilledPackages();
+            packageNames.addAll(getPackages(Status.NOT_RUNNING));
+            return packageNames;
+        }
+
+        long getReclaimedKb() {
+            long total = 0;
+            for (Outcome outcome : outcomes) {
+                total += outcome.reclaimedKb();
+            }
+            return total;
+        }
+    }
+
+    private final ShellManager shellManager;
+    private final PrivilegedServiceClient privilegedService;
+    private final ShellQueryCache queryCache;
+    private final ProcessEventMonitor processMonitor;
+    private final MemoryProbe memoryProbe;
+    private final KillVerifier killVerifier;
+
+    KillExecutor(ShellManager shellManager, PrivilegedServiceClient privilegedService, ShellQueryCache queryCache,
+            ProcessEventMonitor processMonitor, MemoryProbe memoryProbe, KillVerifier killVerifier) {
+        this.shellManager = shellManager;
+        this.privilegedService = privilegedService;
+        this.queryCache = queryCache;
+        this.processMonitor = processMonitor;
+        this.memoryProbe = memoryProbe;
+        this.killVerifier = killVerifier;
+    }
+
+    /**
+     * Force-stop {@code packageNames} through the privileged service, or one
+     * shell batch if it is not bound, and hand the outcome to
+     * {@code onResult} once it is known. The stop itself blocks, so call this
+     * from a background thread; {@code onResult} also runs on one.
+     *
+     * @param memoryBeforeKb  memory of the running packages if the caller
+     *                        has just measured it, or null to measure here
+     * @param killBackground  also kill every cached background process
+     * @param trackRelaunches also count the packages that come back after
+     *                        dying, through the event log if it is followed
+     */
+    void execute(List<String> packageNames, Map<String, Long> memoryBeforeKb, boolean killBackground,
+            boolean trackRelaunches, Consumer<Result> onResult) {
+        Map<String, Long> before = memoryBeforeKb != null ? memoryBeforeKb : memoryProbe.measure(packageNames);
+        Map<String, Set<Integer>> pidsBefore = killVerifier.listRunningProcesses();
+
+        Status[] statuses = new Status[packageNames.size()];
+        boolean[] results = privilegedService.forceStopPackages(packageNames);
+        if (results != null) {
+            if (killBackground) {
+                privilegedService.killAllBackgroundProcesses();
+            }
+            for (int i = 0; i < statuses.length; i++) {
+                statuses[i] = i < results.length && results[i] ? null : Status.FAILED;
+            }
+        } else {
+            List<String> commands = buildForceStopCommands(packageNames);
+            if (killBackground) {
+                commands.add("am kill-all");
+            }
+            List<ShellManager.ShellResult> shellResults = shellManager.executeBatch(commands);
+            for (int i = 0; i < statuses.length; i++) {
+                statuses[i] = i < shellResults.size() ? classify(shellResults.get(i)) : Status.FAILED;
+            }
+        }
+        queryCache.invalidate();
+
+        // A null status means the system accepted the stop and the package still has to be seen gone
+        List<String> stopped = new ArrayList<>();
+        for (int i = 0; i < statuses.length; i++) {
+            if (statuses[i] == null) {
+                if (pidsBefore != null && !pidsBefore.containsKey(packageNames.get(i))) {
+                    statuses[i] = Status.NOT_RUNNING;
+                } else {
+                    stopped.add(packageNames.get(i));
+                }
+            }
+        }
+        processMonitor.onPackagesStopped(stopped);
+        // With the event log followed, relaunches are counted as they happen
+        boolean verifierTracksRelaunches = trackRelaunches && !processMonitor.watchRelaunches(stopped);
+        killVerifier.verify(stopped, pidsBefore, verifierTracksRelaunches, (died, relaunched, unconfirmed) ->
+                onResult.accept(buildResult(packageNames, statuses, before, pidsBefore != null, died, relaunched)));
+    }
+
+    /**
+     * Settle the outcome of every package from the force-stop statuses, the
+     * memory measured before the stop (null if it could not be) and what the
+     * verifier saw. With no process list from before the stop, a package
+     * that died is only counted as stopped if its memory was measured; if
+     * nothing was, whether it ran at all is unknown and no kill is claimed.
+     */
+    private static Result buildResult(List<String> packageNames, Status[] statuses, Map<String, Long> memoryBeforeKb,
+            boolean pidsKnown, Set<String> died, Set<String> relaunched) {
+        List<Outcome> outcomes = new ArrayList<>(statuses.length);
+        for (int i = 0; i < statuses.length; i++) {
+            String packageName = packageNames.get(i);
+            Long before = memoryBeforeKb != null ? memoryBeforeKb.get(packageName) : null;
+            Status status = statuses[i];
+            if (status == null) {
+                if (relaunched.contains(packageName)) {
+                    status = Status.RELAUNCHED;
+                } else if (!died.contains(packageName)) {
+                    // Stopped as far as the system said, but never seen gone
+                    status = Status.FAILED;
+                } else {
+                    status = pidsKnown || before != null ? Status.STOPPED : Status.NOT_RUNNING;
+                }
+            }
+            boolean gone = status == Status.STOPPED || status == Status.NOT_RUNNING;
+            outcomes.add(new Outcome(packageName, status,
+                    before != null ? before : memoryBeforeKb != null ? 0 : -1,
+                    gone ? 0 : -1));
+        }
+        return new Result(outcomes);
+    }
+
+    static List<String> buildForceStopCommands(List<String> packageNames) {
+        List<String> commands = new ArrayList<>(packageNames.size() + 1);
+        for (String packageName : packageNames) {
+            commands.add(FORCE_STOP_COMMAND_PREFIX + packageName);
+        }
+        return commands;
+    }
+
+    private static Status classify(ShellManager.ShellResult result) {
+        if (result.succeeded()) {
+            return null;
+        }
+        // am reports a refused stop on either stream depending on the release
+        String error = result.output();
+        if (error.contains("SecurityException") || error.contains("Permission Denial")) {
+            return Status.DENIED;
+        }
+        return Status.FAILED;
+    }
+}
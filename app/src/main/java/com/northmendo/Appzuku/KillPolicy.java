@@ -0,0 +1,124 @@
+package com.northmendo.Appzuku;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable, compiled form of the user's kill settings: the hidden,
+ * whitelisted, blacklisted and background-restricted lists, the kill mode and
+ * the protected packages. Every listed package is resolved to a
+ * {@link Verdict} up front, so deciding on a running package is one map
+ * lookup. Policies are built by {@link KillPolicyCompiler} and replaced, not
+ * changed, when a setting changes; {@link #getVersion()} tells them apart.
+ */
+public final class KillPolicy {
+    public static final int KILL_MODE_WHITELIST = 0;
+    public static final int KILL_MODE_BLACKLIST = 1;
+
+    public enum Verdict {
+        /** Never killed */
+        SKIP,
+        /** Killed when running in the background */
+        KILL,
+        /** Killed when running in the background, unless the app is persistent */
+        KILL_IF_NOT_PERSISTENT
+    }
+
+    private static final int FLAG_HIDDEN = 1;
+    private static final int FLAG_PROTECTED = 1 << 1;
+    private static final int FLAG_WHITELISTED = 1 << 2;
+    private static final int FLAG_BLACKLISTED = 1 << 3;
+
+    private final int version;
+    private final int killMode;
+    private final Verdict defaultVerdict;
+    private final Map<String, Integer> flags = new HashMap<>();
+    private final Map<String, Verdict> verdicts = new HashMap<>();
+    private final Set<String> backgroundRestrictedApps;
+    // The protected set and app list version this policy was compiled from
+    final Set<String> protectedPackages;
+    final int listsVersion;
+
+    KillPolicy(int version, int listsVersion, int killMode, Set<String> hiddenApps, Set<String> whitelistedApps,
+            Set<String> blacklistedApps, Set<String> backgroundRestrictedApps, Set<String> protectedPackages) {
+        this.version = version;
+        this.killMode = killMode;
+        this.defaultVerdict = killMode == KILL_MODE_BLACKLIST ? Verdict.SKIP : Verdict.KILL_IF_NOT_PERSISTENT;
+        this.backgroundRestrictedApps = Collections.unmodifiableSet(new HashSet<>(backgroundRestrictedApps));
+        this.protectedPackages = protectedPackages;
+        this.listsVersion = listsVersion;
+
+        addFlag(hiddenApps, FLAG_HIDDEN);
+        addFlag(protectedPackages, FLAG_PROTECTED);
+        addFlag(whitelistedApps, FLAG_WHITELISTED);
+        addFlag(blacklistedApps, FLAG_BLACKLISTED);
+        for (Map.Entry<String, Integer> entry : flags.entrySet()) {
+            Verdict verdict = compile(entry.getValue());
+            if (verdict != defaultVerdict) {
+                verdicts.put(entry.getKey(), verdict);
+            }
+        }
+    }
+
+    private void addFlag(Set<String> packageNames, int flag) {
+        for (String packageName : packageNames) {
+            Integer current = flags.get(packageName);
+            flags.put(packageName, current == null ? flag : current | flag);
+        }
+    }
+
+    private Verdict compile(int packageFlags) {
+        if ((packageFlags & (FLAG_HIDDEN | FLAG_PROTECTED)) != 0) {
+            return Verdict.SKIP;
+        }
+        if (killMode == KILL_MODE_BLACKLIST) {
+            return (packageFlags & FLAG_BLACKLISTED) != 0 ? Verdict.KILL : Verdict.SKIP;
+        }
+        return (packageFlags & FLAG_WHITELISTED) != 0 ? Verdict.SKIP : Verdict.KILL_IF_NOT_PERSISTENT;
+    }
+
+    /**
+     * What an automatic kill does with {@code packageName} when it is running
+     * and not in the foreground.
+     */
+    public Verdict getVerdict(String packageName) {
+        Verdict verdict = verdicts.get(packageName);
+        return verdict != null ? verdict : defaultVerdict;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getKillMode() {
+        return killMode;
+    }
+
+    public boolean isHidden(String packageName) {
+        return hasFlag(packageName, FLAG_HIDDEN);
+    }
+
+    public boolean isProtected(String packageName) {
+        return hasFlag(packageName, FLAG_PROTECTED);
+    }
+
+    public boolean isWhitelisted(String packageName) {
+        return hasFlag(packageName, FLAG_WHITELISTED);
+    }
+
+    public boolean isBlacklisted(String packageName) {
+        return hasFlag(packageName, FLAG_BLACKLISTED);
+    }
+
+    public Set<String> getBackgroundRestrictedApps() {
+        return backgroundRestrictedApps;
+    }
+
+    private boolean hasFlag(String packageName, int flag) {
+        Integer packageFlags = flags.get(packageName);
+        return packageFlags != null && (packageFlags & flag) != 0;
+    }
+}
@@ -0,0 +1,96 @@
+package com.northmendo.Appzuku;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.northmendo.Appzuku.db.AppPolicy;
+
+import java.util.Set;
+
+import static com.northmendo.Appzuku.PreferenceKeys.*;
+
+/**
+ * Builds the {@link KillPolicy} shared by the service, the worker and the UI.
+ * The policy is compiled on first use and kept until the kill mode changes,
+ * the app lists in {@link AppPolicyStore} change or the protected set is
+ * resolved again; the next caller compiles a new version. Callers in between
+ * get the same instance without reading settings.
+ */
+final class KillPolicyCompiler {
+    private static final String TAG = "KillPolicyCompiler";
+
+    private static KillPolicyCompiler instance;
+
+    private final SharedPreferences preferences;
+    private final ProtectedAppSet protectedApps;
+    private final AppPolicyStore policyStore;
+    // Held here, since preferences only keep a weak reference to listeners
+    private final SharedPreferences.OnSharedPreferenceChangeListener listener;
+    private volatile KillPolicy policy;
+    private volatile boolean stale = true;
+    // Guarded by this
+    private int version;
+
+    private KillPolicyCompiler(Context context) {
+        this.preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        this.protectedApps = ProtectedAppSet.getInstance(context);
+        this.policyStore = AppPolicyStore.getInstance(context);
+        this.listener = (sharedPreferences, key) -> {
+            // A null key means the preferences were cleared
+            if (key == null || KEY_KILL_MODE.equals(key)) {
+                stale = true;
+            }
+        };
+        preferences.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    static synchronized KillPolicyCompiler getInstance(Context context) {
+        if (instance == null) {
+            instance = new KillPolicyCompiler(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * The current policy, compiled first if it is out of date. May block
+     * while the protected set is resolved, so call it from a background
+     * thread where possible.
+     */
+    KillPolicy get() {
+        Set<String> protectedPackages = protectedApps.get();
+        int listsVersion = policyStore.getVersion();
+        KillPolicy current = policy;
+        if (isCurrent(current, protectedPackages, listsVersion)) {
+            return current;
+        }
+        synchronized (this) {
+            current = policy;
+            if (!isCurrent(current, protectedPackages, listsVersion)) {
+                // Cleared first, so a change during the compile marks it stale again
+                stale = false;
+                current = compile(protectedPackages, listsVersion);
+                policy = current;
+            }
+            return current;
+        }
+    }
+
+    private boolean isCurrent(KillPolicy current, Set<String> protectedPackages, int listsVersion) {
+        return !stale && current != null && current.protectedPackages == protectedPackages
+                && current.listsVersion == listsVersion;
+    }
+
+    private KillPolicy compile(Set<String> protectedPackages, int listsVersion) {
+        // Lists are read after their version, so a concurrent write only causes an extra compile
+        KillPolicy compiled = new KillPolicy(++version, listsVersion,
+                preferences.getInt(KEY_KILL_MODE, KillPolicy.KILL_MODE_WHITELIST),
+                policyStore.getPackages(AppPolicy.FLAG_HIDDEN),
+                policyStore.getPackages(AppPolicy.FLAG_WHITELISTED),
+                policyStore.getPackages(AppPolicy.FLAG_BLACKLISTED),
+                policyStore.getPackages(AppPolicy.FLAG_BG_RESTRICTED),
+                protectedPackages);
+        Log.d(TAG, "Compiled kill policy v" + compiled.getVersion());
+        return compiled;
+    }
+}
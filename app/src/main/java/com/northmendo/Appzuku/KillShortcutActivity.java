@@ -2,8 +2,6 @@ package com.northmendo.Appzuku;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.os.Bundle;
 import android.os.Handler;
@@ -15,7 +13,6 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 // Transparent, no-UI activity invoked via the launcher long-press static shortcut.
 // Resolves the previously active app and force-stops it.
@@ -24,13 +21,13 @@ public class KillShortcutActivity extends Activity {
 
     private ShellManager shellManager;
     private final Handler handler = new Handler(Looper.getMainLooper());
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final ExecutorService executor = AppExecutors.newSerialExecutor(AppExecutors.Lane.INTERACTIVE);
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
-        shellManager = new ShellManager(this, handler, executor);
+        shellManager = ShellManager.getInstance(this);
 
         if (!shellManager.hasAnyShellPermission()) {
             Toast.makeText(getApplicationContext(), "Shizuku or Root permission required", Toast.LENGTH_SHORT).show();
@@ -44,6 +41,7 @@ public class KillShortcutActivity extends Activity {
                 final String pkg = targetPackage;
                 shellManager.runShellCommand("am force-stop " + pkg,
                         () -> {
+                            ShellQueryCache.getInstance(this).invalidate();
                             logKilledPackage(pkg);
                             Toast.makeText(getApplicationContext(), "Killed: " + pkg, Toast.LENGTH_SHORT).show();
                             finish();
@@ -200,7 +198,7 @@ public class KillShortcutActivity extends Activity {
                 com.northmendo.Appzuku.db.AppStatsDao appStatsDao =
                         com.northmendo.Appzuku.db.AppDatabase.getInstance(getApplicationContext()).appStatsDao();
                 com.northmendo.Appzuku.db.AppStats stats = appStatsDao.getStats(packageName);
-                String appName = resolveInstalledAppName(packageName);
+                String appName = PackageMetadataCache.getInstance(this).getLabel(packageName);
 
                 if (stats == null) {
                     stats = new com.northmendo.Appzuku.db.AppStats(packageName);
@@ -218,19 +216,6 @@ public class KillShortcutActivity extends Activity {
         });
     }
 
-    private String resolveInstalledAppName(String packageName) {
-        try {
-            PackageManager pm = getPackageManager();
-            ApplicationInfo appInfo = pm.getApplicationInfo(packageName, 0);
-            CharSequence label = pm.getApplicationLabel(appInfo);
-            if (label != null) {
-                return label.toString();
-            }
-        } catch (PackageManager.NameNotFoundException ignored) {
-        }
-        return null;
-    }
-
     @Override
     protected void onDestroy() {
         super.onDestroy();
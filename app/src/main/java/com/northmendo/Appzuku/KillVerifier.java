@@ -0,0 +1,242 @@
+package com.northmendo.Appzuku;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+/**
+ * Follows up on a batch of force-stops without holding a thread while it
+ * waits. Each check is scheduled through {@link AppExecutors#schedule} and
+ * runs on the maintenance lane. Early checks back off while they confirm
+ * that every process of the killed packages is gone
+ * ({@link AppConstants#KILL_DEATH_POLL_DELAYS_MS}); once all are gone, or the
+ * last of these checks has run, the {@link DeathListener} learns which
+ * packages died. Later checks at {@link AppConstants#RELAUNCH_CHECK_HORIZONS_MS}
+ * look for packages that came back after dying. A package whose processes
+ * were all replaced by new ones before it was ever seen gone died and
+ * relaunched in between checks; that is told apart from one that never died
+ * by the pids it had before the kill. Every kill event records at most one
+ * relaunch per package.
+ */
+final class KillVerifier {
+    private static final String TAG = "KillVerifier";
+
+    /**
+     * Told once per kill event, on a background thread, how the death
+     * checks ended.
+     */
+    interface DeathListener {
+        /**
+         * @param died        packages seen gone at least once
+         * @param relaunched  packages running again under new pids before
+         *                    they were seen gone
+         * @param unconfirmed packages still running under a pid they had
+         *                    before the kill at every check, or never
+         *                    checked because the running processes could not
+         *                    be listed
+         */
+        void onDeathsSettled(Set<String> died, Set<String> relaunched, Set<String> unconfirmed);
+    }
+
+    private final Context context;
+    // Pids of each running app package right now, or null if they cannot be listed
+    private final Supplier<Map<String, Set<Integer>>> runningProcesses;
+
+    KillVerifier(Context context, Supplier<Map<String, Set<Integer>>> runningProcesses) {
+        this.context = context;
+        this.runningProcesses = runningProcesses;
+    }
+
+    /**
+     * Pids of each running app package, or null if they cannot be listed.
+     * Blocking; taken before a kill, it is what {@link #verify} compares
+     * against.
+     */
+    Map<String, Set<Integer>> listRunningProcesses() {
+        return runningProcesses.get();
+    }
+
+    /**
+     * Start verifying packages that were just force-stopped.
+     *
+     * @param pidsBefore      the result of {@link #listRunningProcesses}
+     *                        just before the kill, or null if it failed
+     * @param trackRelaunches false if relaunches are already counted
+     *                        elsewhere, so only death is confirmed
+     */
+    void verify(Collection<String> packageNames, Map<String, Set<Integer>> pidsBefore, boolean trackRelaunches,
+            DeathListener listener) {
+        if (packageNames.isEmpty()) {
+            listener.onDeathsSettled(new HashSet<>(), new HashSet<>(), new HashSet<>());
+            return;
+        }
+        KillEvent event = new KillEvent(packageNames, pidsBefore, trackRelaunches);
+        for (long delay : event.checkTimes) {
+            AppExecutors.schedule(AppExecutors.Lane.MAINTENANCE, () -> check(event, delay, listener), delay);
+        }
+    }
+
+    private void check(KillEvent event, long checkTime, DeathListener listener) {
+        if (!event.needsCheck(checkTime)) {
+            return;
+        }
+        Set<String> relaunched = event.apply(runningProcesses.get(), checkTime);
+        if (event.settle()) {
+            listener.onDeathsSettled(event.getDied(), event.getRelaunchedEarly(), event.takeDying());
+        }
+        if (relaunched.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        com.northmendo.Appzuku.db.AppStatsDao dao =
+                com.northmendo.Appzuku.db.AppDatabase.getInstance(context).appStatsDao();
+        for (String pkg : relaunched) {
+            Log.d(TAG, pkg + " relaunched within " + checkTime + " ms of being killed");
+            dao.incrementRelaunch(pkg, now);
+        }
+    }
+
+    /**
+     * Verification state of one batch of kills. Packages move from
+     * {@code dying} to {@code dead} once a check no longer sees them, and
+     * leave {@code dead} when they relaunch; {@code died} keeps every package
+     * that was ever seen gone. Packages found under new pids while still
+     * {@code dying} go to {@code relaunchedEarly} instead.
+     */
+    private static final class KillEvent {
+        final long killedAt = SystemClock.elapsedRealtime();
+        final boolean trackRelaunches;
+        final long lastDeathPoll;
+        final long lastCheck;
+        final TreeSet<Long> checkTimes = new TreeSet<>();
+        final Map<String, Set<Integer>> pidsBefore;
+        // Guarded by this
+        final Set<String> dying;
+        final Set<String> dead = new HashSet<>();
+        final Set<String> died = new HashSet<>();
+        final Set<String> relaunchedEarly = new HashSet<>();
+        boolean deathPollsOver;
+        boolean settled;
+
+        KillEvent(Collection<String> packageNames, Map<String, Set<Integer>> pidsBefore, boolean trackRelaunches) {
+            this.trackRelaunches = trackRelaunches;
+            this.pidsBefore = pidsBefore;
+            this.dying = new HashSet<>(packageNames);
+            long last = 0;
+            for (long delay : AppConstants.KILL_DEATH_POLL_DELAYS_MS) {
+                last += delay;
+                checkTimes.add(last);
+            }
+            lastDeathPoll = last;
+            if (trackRelaunches) {
+                for (long horizon : AppConstants.RELAUNCH_CHECK_HORIZONS_MS) {
+                    checkTimes.add(horizon);
+                }
+            }
+            lastCheck = checkTimes.last();
+        }
+
+        /**
+         * Whether a check at {@code checkTime} can still learn anything.
+         */
+        synchronized boolean needsCheck(long checkTime) {
+            if (!dying.isEmpty() && checkTime <= lastDeathPoll) {
+                return true;
+            }
+            return trackRelaunches && !dead.isEmpty();
+        }
+
+        /**
+         * Apply one observation of the running packages, or null if they
+         * could not be listed, and return the packages that relaunched since
+         * the last one.
+         */
+        synchronized Set<String> apply(Map<String, Set<Integer>> running, long checkTime) {
+            Set<String> relaunched = new HashSet<>();
+            if (checkTime >= lastDeathPoll) {
+                deathPollsOver = true;
+            }
+            if (running == null) {
+                return relaunched;
+            }
+            if (trackRelaunches) {
+                for (String pkg : dead) {
+                    if (running.containsKey(pkg)) {
+                        relaunched.add(pkg);
+                    }
+                }
+                dead.removeAll(relaunched);
+            }
+            if (checkTime <= lastDeathPoll) {
+                for (String pkg : new HashSet<>(dying)) {
+                    Set<Integer> pids = running.get(pkg);
+                    if (pids == null) {
+                        dying.remove(pkg);
+                        dead.add(pkg);
+                        died.add(pkg);
+                    } else if (isReplaced(pkg, pids)) {
+                        dying.remove(pkg);
+                        relaunchedEarly.add(pkg);
+                        if (trackRelaunches) {
+                            relaunched.add(pkg);
+                        }
+                    }
+                }
+                if (checkTime == lastDeathPoll && !dying.isEmpty()) {
+                    Log.w(TAG, "Still running " + (SystemClock.elapsedRealtime() - killedAt)
+                            + " ms after force-stop: " + dying);
+                }
+            }
+            if (trackRelaunches && checkTime == lastCheck && !dead.isEmpty()) {
+                Log.d(TAG, "Stayed dead for " + checkTime + " ms: " + dead);
+            }
+            return relaunched;
+        }
+
+        /**
+         * Whether none of the processes {@code pkg} had before the kill is
+         * among {@code pids}. False if those are unknown.
+         */
+        private boolean isReplaced(String pkg, Set<Integer> pids) {
+            Set<Integer> before = pidsBefore != null ? pidsBefore.get(pkg) : null;
+            return before != null && Collections.disjoint(before, pids);
+        }
+
+        /**
+         * Whether the death checks have just ended, because every package
+         * died or the last death poll ran. True once per event.
+         */
+        synchronized boolean settle() {
+            if (settled || !(dying.isEmpty() || deathPollsOver)) {
+                return false;
+            }
+            settled = true;
+            return true;
+        }
+
+        synchronized Set<String> getDied() {
+            return new HashSet<>(died);
+        }
+
+        synchronized Set<String> getRelaunchedEarly() {
+            return new HashSet<>(relaunchedEarly);
+        }
+
+        /**
+         * The packages never seen gone; they are no longer checked.
+         */
+        synchronized Set<String> takeDying() {
+            Set<String> remaining = new HashSet<>(dying);
+            dying.clear();
+            return remaining;
+        }
+    }
+}
@@ -26,7 +26,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 import android.widget.PopupMenu;
@@ -45,7 +44,7 @@ public class MainActivity extends BaseActivity {
 
     private ActivityMainBinding binding;
     private final Handler handler = new Handler(Looper.getMainLooper());
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final ExecutorService executor = AppExecutors.newSerialExecutor();
     private ShellManager shellManager;
     private BackgroundAppManager appManager;
     private RamMonitor ramMonitor;
@@ -86,7 +85,7 @@ public class MainActivity extends BaseActivity {
         binding.toolbar.setTitleTextColor(Color.WHITE);
 
         // Initialize components
-        shellManager = new ShellManager(this, handler, executor);
+        shellManager = ShellManager.getInstance(this);
         appManager = new BackgroundAppManager(this, handler, executor, shellManager);
         ramMonitor = new RamMonitor(handler, binding.ramUsage, binding.ramUsageText);
 
@@ -105,6 +104,7 @@ public class MainActivity extends BaseActivity {
         shellManager.checkShellPermissions();
         loadBackgroundApps();
         ramMonitor.startMonitoring();
+        ProcessEventMonitor.getInstance(this).acquire();
     }
 
     @Override
@@ -136,14 +136,15 @@ public class MainActivity extends BaseActivity {
 
             @Override
             public void onToggleWhitelist(AppModel app, int position) {
-                boolean isNowWhitelisted = appManager.toggleWhitelist(app.getPackageName());
-                app.setWhitelisted(isNowWhitelisted);
-                listAdapter.notifyItemChanged(position);
-
-                String message = isNowWhitelisted
-                        ? "Added to whitelist (never kill)"
-                        : "Removed from whitelist";
-                Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show();
+                appManager.toggleWhitelist(app.getPackageName(), isNowWhitelisted -> {
+                    app.setWhitelisted(isNowWhitelisted);
+                    listAdapter.notifyItemChanged(position);
+
+                    String message = isNowWhitelisted
+                            ? "Added to whitelist (never kill)"
+                            : "Removed from whitelist";
+                    Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show();
+                });
             }
 
             @Override
@@ -172,14 +173,7 @@ public class MainActivity extends BaseActivity {
             popup.getMenu().findItem(R.id.action_uninstall).setVisible(false);
         }
 
-        // Set checkmarks for current list memberships
         String packageName = app.getPackageName();
-        popup.getMenu().findItem(R.id.action_whitelist).setChecked(
-                appManager.getWhitelistedApps().contains(packageName));
-        popup.getMenu().findItem(R.id.action_blacklist).setChecked(
-                appManager.getBlacklistedApps().contains(packageName));
-        popup.getMenu().findItem(R.id.action_hidden).setChecked(
-                appManager.getHiddenApps().contains(packageName));
         MenuItem restrictionItem = popup.getMenu().findItem(R.id.action_background_restriction);
         restrictionItem.setVisible(appManager.supportsBackgroundRestriction());
         restrictionItem.setChecked(app.isBackgroundRestrictionDesired());
@@ -209,7 +203,16 @@ public class MainActivity extends BaseActivity {
             return false;
         });
 
-        popup.show();
+        // Set checkmarks for current list memberships
+        appManager.getKillPolicy(policy -> {
+            if (isFinishing() || isDestroyed()) {
+                return;
+            }
+            popup.getMenu().findItem(R.id.action_whitelist).setChecked(policy.isWhitelisted(packageName));
+            popup.getMenu().findItem(R.id.action_blacklist).setChecked(policy.isBlacklisted(packageName));
+            popup.getMenu().findItem(R.id.action_hidden).setChecked(policy.isHidden(packageName));
+            popup.show();
+        });
     }
 
     private void openAppInfo(String packageName) {
@@ -238,22 +241,22 @@ public class MainActivity extends BaseActivity {
 
     private void toggleListMembership(AppModel app, String listType) {
         String packageName = app.getPackageName();
-        Set<String> currentSet;
+        int flag;
         String addedMsg, removedMsg;
 
         switch (listType) {
             case "whitelist":
-                currentSet = appManager.getWhitelistedApps();
+                flag = com.northmendo.Appzuku.db.AppPolicy.FLAG_WHITELISTED;
                 addedMsg = "Added to whitelist";
                 removedMsg = "Removed from whitelist";
                 break;
             case "blacklist":
-                currentSet = appManager.getBlacklistedApps();
+                flag = com.northmendo.Appzuku.db.AppPolicy.FLAG_BLACKLISTED;
                 addedMsg = "Added to blacklist";
                 removedMsg = "Removed from blacklist";
                 break;
             case "hidden":
-                currentSet = appManager.getHiddenApps();
+                flag = com.northmendo.Appzuku.db.AppPolicy.FLAG_HIDDEN;
                 addedMsg = "App hidden";
                 removedMsg = "App unhidden";
                 break;
@@ -261,29 +264,15 @@ public class MainActivity extends BaseActivity {
                 return;
         }
 
-        boolean wasInList = currentSet.contains(packageName);
-        if (wasInList) {
-            currentSet.remove(packageName);
-        } else {
-            currentSet.add(packageName);
-        }
-
-        // Save the updated set
-        switch (listType) {
-            case "whitelist":
-                appManager.saveWhitelistedApps(currentSet);
-                app.setWhitelisted(!wasInList);
-                break;
-            case "blacklist":
-                appManager.saveBlacklistedApps(currentSet);
-                break;
-            case "hidden":
-                appManager.saveHiddenApps(currentSet);
-                break;
-        }
+        // Only this package's row is updated
+        appManager.toggleListMembership(packageName, flag, isInList -> {
+            if ("whitelist".equals(listType)) {
+                app.setWhitelisted(isInList);
+            }
 
-        listAdapter.submitList(new ArrayList<>(appsDataList));
-        Toast.makeText(this, wasInList ? removedMsg : addedMsg, Toast.LENGTH_SHORT).show();
+            listAdapter.submitList(new ArrayList<>(appsDataList));
+            Toast.makeText(this, isInList ? addedMsg : removedMsg, Toast.LENGTH_SHORT).show();
+        });
     }
 
     private void toggleBackgroundRestriction(AppModel app) {
@@ -562,10 +551,11 @@ public class MainActivity extends BaseActivity {
     protected void onDestroy() {
         super.onDestroy();
         // Clean up resources
-        shellManager.removeShizukuPermissionListener();
+        shellManager.removeShizukuPermissionListener(shizukuPermissionListener);
         executor.shutdownNow();
         handler.removeCallbacksAndMessages(null);
         ramMonitor.stopMonitoring();
+        ProcessEventMonitor.getInstance(this).release();
         binding = null;
     }
 }
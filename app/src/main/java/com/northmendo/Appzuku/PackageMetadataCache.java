@@ -0,0 +1,203 @@
+package com.northmendo.Appzuku;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Application-wide cache of package metadata (label, flags, uid, version and
+ * the application info that icons are loaded from), so repeated scans do not
+ * make PackageManager binder calls for packages they have already seen.
+ * Entries are loaded on first use, including the fact that a package is not
+ * installed, and are dropped by package broadcasts: added, removed, replaced
+ * and changed invalidate that package, and a locale change invalidates every
+ * label.
+ */
+public final class PackageMetadataCache {
+    private static PackageMetadataCache instance;
+
+    private final PackageManager packageManager;
+    // Guarded by this. A present key with a null value means not installed.
+    private final Map<String, Metadata> entries = new HashMap<>();
+    // Guarded by this. Every installed package, or null until first listed.
+    private List<Metadata> installed;
+    // Guarded by this. Bumped by every invalidation, so loads that raced with
+    // one are returned but not cached.
+    private int generation;
+
+    /**
+     * Metadata of one installed package.
+     */
+    public static final class Metadata {
+        public final String packageName;
+        public final String label;
+        public final int flags;
+        public final int uid;
+        public final long versionCode;
+        final ApplicationInfo appInfo;
+
+        Metadata(PackageManager packageManager, PackageInfo info) {
+            this.appInfo = info.applicationInfo;
+            this.packageName = info.packageName;
+            this.label = packageManager.getApplicationLabel(appInfo).toString();
+            this.flags = appInfo.flags;
+            this.uid = appInfo.uid;
+            this.versionCode = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P
+                    ? info.getLongVersionCode()
+                    : info.versionCode;
+        }
+
+        public boolean isSystem() {
+            return (flags & ApplicationInfo.FLAG_SYSTEM) != 0;
+        }
+
+        public boolean isPersistent() {
+            return (flags & ApplicationInfo.FLAG_PERSISTENT) != 0;
+        }
+    }
+
+    private PackageMetadataCache(Context context) {
+        this.packageManager = context.getPackageManager();
+
+        IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addDataScheme("package");
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                Uri data = intent.getData();
+                invalidate(data != null ? data.getSchemeSpecificPart() : null);
+            }
+        }, packageFilter);
+
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidate(null);
+            }
+        }, new IntentFilter(Intent.ACTION_LOCALE_CHANGED));
+    }
+
+    public static synchronized PackageMetadataCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new PackageMetadataCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Metadata of {@code packageName}, or null if it is not installed.
+     */
+    public Metadata get(String packageName) {
+        if (packageName == null) {
+            return null;
+        }
+        int loadGeneration;
+        synchronized (this) {
+            if (entries.containsKey(packageName)) {
+                return entries.get(packageName);
+            }
+            loadGeneration = generation;
+        }
+        Metadata metadata;
+        try {
+            metadata = new Metadata(packageManager, packageManager.getPackageInfo(packageName, 0));
+        } catch (PackageManager.NameNotFoundException e) {
+            metadata = null;
+        }
+        synchronized (this) {
+            if (generation == loadGeneration) {
+                entries.put(packageName, metadata);
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Cached metadata of {@code packageName}, or null if it is not cached or
+     * not installed. Never calls PackageManager, so it is safe on the main
+     * thread.
+     */
+    public synchronized Metadata peek(String packageName) {
+        return entries.get(packageName);
+    }
+
+    public boolean isInstalled(String packageName) {
+        return get(packageName) != null;
+    }
+
+    /**
+     * Label of {@code packageName}, or null if it is not installed.
+     */
+    public String getLabel(String packageName) {
+        Metadata metadata = get(packageName);
+        return metadata != null ? metadata.label : null;
+    }
+
+    /**
+     * Every installed package. The list is loaded with one call the first
+     * time and reused until a package broadcast arrives.
+     */
+    public List<Metadata> getInstalledPackages() {
+        int loadGeneration;
+        synchronized (this) {
+            if (installed != null) {
+                return installed;
+            }
+            loadGeneration = generation;
+        }
+        List<Metadata> loaded = new ArrayList<>();
+        for (PackageInfo info : packageManager.getInstalledPackages(0)) {
+            if (info.applicationInfo != null) {
+                loaded.add(new Metadata(packageManager, info));
+            }
+        }
+        loaded = Collections.unmodifiableList(loaded);
+        synchronized (this) {
+            if (generation == loadGeneration) {
+                for (Metadata metadata : loaded) {
+                    entries.put(metadata.packageName, metadata);
+                }
+                installed = loaded;
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Full-size icon of an installed package. Icons are not kept here; see
+     * {@link AppIconLoader} for the cache of list-size bitmaps.
+     */
+    public Drawable loadIcon(Metadata metadata) {
+        return packageManager.getApplicationIcon(metadata.appInfo);
+    }
+
+    /**
+     * Drop {@code packageName}, or every package if it is null.
+     */
+    public synchronized void invalidate(String packageName) {
+        generation++;
+        if (packageName == null) {
+            entries.clear();
+        } else {
+            entries.remove(packageName);
+        }
+        installed = null;
+    }
+}
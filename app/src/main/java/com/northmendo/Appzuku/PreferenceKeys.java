@@ -10,7 +10,7 @@ public final class PreferenceKeys {
 
     public static final String PREFERENCES_NAME = "AppPreferences";
 
-    // App Lists
+    // App Lists (moved to the app_policy table; still used as backup keys)
     public static final String KEY_HIDDEN_APPS = "hidden_apps";
     public static final String KEY_WHITELISTED_APPS = "whitelisted_apps";
     public static final String KEY_BLACKLISTED_APPS = "blacklisted_apps";
@@ -34,4 +34,10 @@ public final class PreferenceKeys {
     public static final String KEY_SHOW_PERSISTENT_APPS = "showPersistentApps";
     public static final String KEY_THEME = "appTheme";
     public static final String KEY_SORT_MODE = "sort_mode";
+    public static final String KEY_PRECISE_MEMORY = "preciseMemory"; // PSS from smaps_rollup instead of RSS (root)
+
+    // Shell capability cache (not part of backups)
+    public static final String KEY_SHELL_CAPABILITY = "shellCapability";
+    public static final String KEY_SHELL_PROBE_LATENCY_MS = "shellProbeLatencyMs";
+    public static final String KEY_SHELL_CAPABILITY_CHECKED_AT = "shellCapabilityCheckedAt";
 }
@@ -0,0 +1,191 @@
+package com.northmendo.Appzuku;
+
+import android.app.ActivityManager;
+import android.app.AppOpsManager;
+import android.os.IBinder;
+import android.util.Log;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Shizuku UserService that runs inside the privileged (shell or root) process.
+ * Talks to ActivityManager, AppOps and PackageManager over binder directly, so
+ * no shell and no am/ps/cmd runtime has to be started for each operation.
+ * System interfaces are hidden API, so they are resolved through reflection.
+ */
+public class PrivilegedService extends IPrivilegedService.Stub {
+    private static final String TAG = "PrivilegedService";
+
+    private Object activityManager;
+    private Object appOpsService;
+    private Object packageManager;
+
+    public PrivilegedService() {
+        // Required by Shizuku, which instantiates the service by class name
+    }
+
+    @Override
+    public void destroy() {
+        System.exit(0);
+    }
+
+    @Override
+    public boolean[] forceStopPackages(String[] packageNames) {
+        boolean[] results = new boolean[packageNames.length];
+        Object am = getActivityManager();
+        Method forceStop = findMethod(am, "forceStopPackage", 2);
+        int userId = getCurrentUserId();
+        for (int i = 0; i < packageNames.length; i++) {
+            try {
+                forceStop.invoke(am, packageNames[i], userId);
+                results[i] = true;
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                Log.w(TAG, "forceStopPackage failed for " + packageNames[i], e);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public List<RunningProcess> getRunningAppProcesses() {
+        List<RunningProcess> result = new ArrayList<>();
+        for (ActivityManager.RunningAppProcessInfo info : queryRunningAppProcesses()) {
+            result.add(new RunningProcess(info.pid, info.uid, info.importance, info.processName, info.pkgList));
+        }
+        return result;
+    }
+
+    @Override
+    public String[] getForegroundPackages() {
+        Set<String> packages = new LinkedHashSet<>();
+        for (ActivityManager.RunningAppProcessInfo info : queryRunningAppProcesses()) {
+            if (info.importance <= ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE
+                    && info.pkgList != null) {
+                for (String packageName : info.pkgList) {
+                    packages.add(packageName);
+                }
+            }
+        }
+        return packages.toArray(new String[0]);
+    }
+
+    @Override
+    public boolean[] setAppOpsMode(String[] packageNames, String op, int mode) {
+        boolean[] results = new boolean[packageNames.length];
+        Object appOps = getAppOpsService();
+        Method setMode = findMethod(appOps, "setMode", 4);
+        int opCode = resolveOpCode(op);
+        int userId = getCurrentUserId();
+        for (int i = 0; i < packageNames.length; i++) {
+            try {
+                int uid = getPackageUid(packageNames[i], userId);
+                if (uid < 0) {
+                    continue;
+                }
+                setMode.invoke(appOps, opCode, uid, packageNames[i], mode);
+                results[i] = true;
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                Log.w(TAG, "setMode failed for " + packageNames[i], e);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void killAllBackgroundProcesses() {
+        Object am = getActivityManager();
+        try {
+            findMethod(am, "killAllBackgroundProcesses", 0).invoke(am);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("killAllBackgroundProcesses failed", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<ActivityManager.RunningAppProcessInfo> queryRunningAppProcesses() {
+        Object am = getActivityManager();
+        try {
+            List<ActivityManager.RunningAppProcessInfo> infos =
+                    (List<ActivityManager.RunningAppProcessInfo>) findMethod(am, "getRunningAppProcesses", 0)
+                            .invoke(am);
+            return infos != null ? infos : new ArrayList<>();
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("getRunningAppProcesses failed", e);
+        }
+    }
+
+    private int getPackageUid(String packageName, int userId)
+            throws IllegalAccessException, InvocationTargetException {
+        Object pm = getPackageManager();
+        Method getPackageUid = findMethod(pm, "getPackageUid", 3);
+        // The flags argument changed from int to long in Android 13
+        Object flags = getPackageUid.getParameterTypes()[1] == long.class ? (Object) 0L : (Object) 0;
+        return (int) getPackageUid.invoke(pm, packageName, flags, userId);
+    }
+
+    private int resolveOpCode(String op) {
+        try {
+            return (int) AppOpsManager.class.getMethod("strOpToOp", String.class).invoke(null, op);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Unknown app op: " + op, e);
+        }
+    }
+
+    private int getCurrentUserId() {
+        try {
+            return (int) ActivityManager.class.getMethod("getCurrentUser").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            Log.w(TAG, "Unable to resolve current user, assuming 0", e);
+            return 0;
+        }
+    }
+
+    private synchronized Object getActivityManager() {
+        if (activityManager == null) {
+            activityManager = getSystemInterface("activity", "android.app.IActivityManager");
+        }
+        return activityManager;
+    }
+
+    private synchronized Object getAppOpsService() {
+        if (appOpsService == null) {
+            appOpsService = getSystemInterface("appops", "com.android.internal.app.IAppOpsService");
+        }
+        return appOpsService;
+    }
+
+    private synchronized Object getPackageManager() {
+        if (packageManager == null) {
+            packageManager = getSystemInterface("package", "android.content.pm.IPackageManager");
+        }
+        return packageManager;
+    }
+
+    private static Object getSystemInterface(String serviceName, String interfaceName) {
+        try {
+            Class<?> serviceManager = Class.forName("android.os.ServiceManager");
+            IBinder binder = (IBinder) serviceManager.getMethod("getService", String.class).invoke(null, serviceName);
+            if (binder == null) {
+                throw new IllegalStateException("System service not found: " + serviceName);
+            }
+            Class<?> stub = Class.forName(interfaceName + "$Stub");
+            return stub.getMethod("asInterface", IBinder.class).invoke(null, binder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to reach system service " + serviceName, e);
+        }
+    }
+
+    private static Method findMethod(Object target, String name, int parameterCount) {
+        for (Method method : target.getClass().getMethods()) {
+            if (method.getName().equals(name) && method.getParameterTypes().length == parameterCount) {
+                return method;
+            }
+        }
+        throw new IllegalStateException("Method not available on this Android version: " + name);
+    }
+}
@@ -0,0 +1,238 @@
+package com.northmendo.Appzuku;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.ServiceConnection;
+import android.content.pm.PackageManager;
+import android.os.DeadObjectException;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import rikka.shizuku.Shizuku;
+
+/**
+ * Binds the Shizuku UserService ({@link PrivilegedService}) and exposes its
+ * typed calls. Every call returns null when the service is not bound yet or the
+ * binder call fails, so callers can fall back to the shell path.
+ */
+public final class PrivilegedServiceClient {
+    private static final String TAG = "PrivilegedServiceClient";
+    private static final int MIN_SHIZUKU_VERSION = 10;
+    private static final int SERVICE_VERSION = 1;
+
+    private static PrivilegedServiceClient instance;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Shizuku.UserServiceArgs serviceArgs;
+    private final AtomicBoolean bindRequested = new AtomicBoolean(false);
+    private volatile IPrivilegedService service;
+
+    private final ServiceConnection connection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            if (binder != null && binder.pingBinder()) {
+                service = IPrivilegedService.Stub.asInterface(binder);
+                Log.d(TAG, "Privileged service connected");
+            } else {
+                bindRequested.set(false);
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            service = null;
+            bindRequested.set(false);
+            Log.d(TAG, "Privileged service disconnected");
+        }
+    };
+
+    private PrivilegedServiceClient(Context context) {
+        serviceArgs = new Shizuku.UserServiceArgs(
+                new ComponentName(context.getPackageName(), PrivilegedService.class.getName()))
+                .daemon(false)
+                .processNameSuffix("privileged")
+                .version(SERVICE_VERSION);
+    }
+
+    public static synchronized PrivilegedServiceClient getInstance(Context context) {
+        if (instance == null) {
+            instance = new PrivilegedServiceClient(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Request a bind if Shizuku is running, granted and new enough.
+     * Binding is asynchronous; calls keep returning null until it completes.
+     */
+    public void bindIfPossible() {
+        if (service != null || bindRequested.get()) {
+            return;
+        }
+        try {
+            if (!Shizuku.pingBinder()
+                    || Shizuku.checkSelfPermission() != PackageManager.PERMISSION_GRANTED
+                    || Shizuku.getVersion() < MIN_SHIZUKU_VERSION) {
+                return;
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Unable to query Shizuku state", e);
+            return;
+        }
+        if (bindRequested.compareAndSet(false, true)) {
+            mainHandler.post(() -> {
+                try {
+                    Shizuku.bindUserService(serviceArgs, connection);
+                } catch (Exception e) {
+                    bindRequested.set(false);
+                    Log.w(TAG, "Failed to bind privileged service", e);
+                }
+            });
+        }
+    }
+
+    public boolean isAvailable() {
+        bindIfPossible();
+        return service != null;
+    }
+
+    /**
+     * Force-stop the given packages. Returns one flag per package, or null.
+     */
+    public boolean[] forceStopPackages(List<String> packageNames) {
+        IPrivilegedService current = acquire();
+        if (current == null) {
+            return null;
+        }
+        try {
+            return current.forceStopPackages(packageNames.toArray(new String[0]));
+        } catch (RemoteException | RuntimeException e) {
+            onCallFailed("forceStopPackages", e);
+            return null;
+        }
+    }
+
+    /**
+     * Packages owning at least one running process under an app uid, or null.
+     * Packages hosted in system or shared-uid processes such as system_server
+     * are left out, matching what {@link ProcessSnapshot} reports.
+     */
+    public Set<String> getRunningPackages() {
+        IPrivilegedService current = acquire();
+        if (current == null) {
+            return null;
+        }
+        try {
+            Set<String> packages = new HashSet<>();
+            for (RunningProcess process : current.getRunningAppProcesses()) {
+                if (ProcessSnapshot.isApplicationUid(process.uid)) {
+                    Collections.addAll(packages, process.packages);
+                }
+            }
+            return packages;
+        } catch (RemoteException | RuntimeException e) {
+            onCallFailed("getRunningAppProcesses", e);
+            return null;
+        }
+    }
+
+    /**
+     * Pids of the app processes of each running package, or null.
+     */
+    public Map<String, Set<Integer>> getRunningProcessIds() {
+        IPrivilegedService current = acquire();
+        if (current == null) {
+            return null;
+        }
+        try {
+            Map<String, Set<Integer>> pids = new HashMap<>();
+            for (RunningProcess process : current.getRunningAppProcesses()) {
+                if (ProcessSnapshot.isApplicationUid(process.uid)) {
+                    for (String pkg : process.packages) {
+                        pids.computeIfAbsent(pkg, k -> new HashSet<>()).add(process.pid);
+                    }
+                }
+            }
+            return pids;
+        } catch (RemoteException | RuntimeException e) {
+            onCallFailed("getRunningAppProcesses", e);
+            return null;
+        }
+    }
+
+    /**
+     * Packages with a foreground or visible process, or null.
+     */
+    public Set<String> getForegroundPackages() {
+        IPrivilegedService current = acquire();
+        if (current == null) {
+            return null;
+        }
+        try {
+            Set<String> packages = new HashSet<>();
+            Collections.addAll(packages, current.getForegroundPackages());
+            return packages;
+        } catch (RemoteException | RuntimeException e) {
+            onCallFailed("getForegroundPackages", e);
+            return null;
+        }
+    }
+
+    /**
+     * Set an app op mode for every package in one call. Returns one flag per
+     * package, or null.
+     */
+    public boolean[] setAppOpsMode(List<String> packageNames, String op, int mode) {
+        IPrivilegedService current = acquire();
+        if (current == null) {
+            return null;
+        }
+        try {
+            return current.setAppOpsMode(packageNames.toArray(new String[0]), op, mode);
+        } catch (RemoteException | RuntimeException e) {
+            onCallFailed("setAppOpsMode", e);
+            return null;
+        }
+    }
+
+    public boolean killAllBackgroundProcesses() {
+        IPrivilegedService current = acquire();
+        if (current == null) {
+            return false;
+        }
+        try {
+            current.killAllBackgroundProcesses();
+            return true;
+        } catch (RemoteException | RuntimeException e) {
+            onCallFailed("killAllBackgroundProcesses", e);
+            return false;
+        }
+    }
+
+    private IPrivilegedService acquire() {
+        IPrivilegedService current = service;
+        if (current == null) {
+            bindIfPossible();
+        }
+        return current;
+    }
+
+    private void onCallFailed(String call, Exception e) {
+        Log.w(TAG, "Privileged call " + call + " failed", e);
+        if (e instanceof DeadObjectException) {
+            service = null;
+            bindRequested.set(false);
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package com.northmendo.Appzuku;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Live table of app processes, kept current from the activity manager's event
+ * log instead of rescanning /proc. A {@link ProcessSnapshot} seeds the table;
+ * after that a long-running {@code logcat -b events} stream applies every
+ * am_proc_start, am_proc_died and am_kill as it happens. The table is
+ * re-seeded whenever the stream reconnects and at least every
+ * {@link AppConstants#PROCESS_TABLE_RESYNC_MS}, since native children of
+ * apps never appear in the event log.
+ * <p>
+ * Packages passed to {@link #watchRelaunches} are matched against incoming
+ * process starts, so a relaunch is counted the moment it happens rather than
+ * whenever the next scan runs.
+ * <p>
+ * The stream only runs while at least one component holds the monitor through
+ * {@link #acquire()}.
+ */
+public final class ProcessEventMonitor {
+    private static final String TAG = "ProcessEventMonitor";
+
+    static final String COMMAND = "logcat -b events -T 1 -s am_proc_start:I am_proc_died:I am_kill:I";
+    private static final String TAG_PROC_START = "am_proc_start";
+    private static final String TAG_PROC_DIED = "am_proc_died";
+    private static final String TAG_KILL = "am_kill";
+    private static final long MIN_RECONNECT_DELAY_MS = 1000;
+    private static final long MAX_RECONNECT_DELAY_MS = 60000;
+
+    private static ProcessEventMonitor instance;
+
+    private final Context context;
+    private final ShellManager shellManager;
+
+    // Guarded by this. Pid to owning package, and live process count per package
+    private final Map<Integer, String> processes = new HashMap<>();
+    private final Map<String, Integer> processCounts = new HashMap<>();
+    // Package to elapsed-realtime deadline of its relaunch watch
+    private final Map<String, Long> relaunchWatches = new HashMap<>();
+    private boolean seeded;
+    private long seededAt;
+    private int holders;
+    private Thread reader;
+    private ShellLineStream stream;
+
+    private ProcessEventMonitor(Context context) {
+        this.context = context;
+        this.shellManager = ShellManager.getInstance(context);
+    }
+
+    public static synchronized ProcessEventMonitor getInstance(Context context) {
+        if (instance == null) {
+            instance = new ProcessEventMonitor(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Start following the event log, if nobody else already has. Every call
+     * must be paired with {@link #release()}.
+     */
+    public synchronized void acquire() {
+        holders++;
+        if (reader == null) {
+            reader = new Thread(this::run, "ProcessEventMonitor");
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    /**
+     * Stop following the event log once the last holder has released it.
+     */
+    public void release() {
+        Thread toStop;
+        ShellLineStream toClose;
+        synchronized (this) {
+            if (holders == 0 || --holders > 0) {
+                return;
+            }
+            toStop = reader;
+            toClose = stream;
+            reader = null;
+            stream = null;
+            clearTable();
+            relaunchWatches.clear();
+        }
+        if (toStop != null) {
+            toStop.interrupt();
+        }
+        if (toClose != null) {
+            toClose.cancel();
+        }
+    }
+
+    /**
+     * Packages with at least one live process, or null if the event stream is
+     * not running and callers must scan instead. Re-seeds the table first if
+     * it is due. This method may block and should be called from a background
+     * thread.
+     */
+    public Set<String> getRunningPackages() {
+        boolean resync;
+        synchronized (this) {
+            if (!seeded) {
+                return null;
+            }
+            resync = SystemClock.elapsedRealtime() - seededAt > AppConstants.PROCESS_TABLE_RESYNC_MS;
+        }
+        if (resync && !seed()) {
+            return null;
+        }
+        synchronized (this) {
+            return seeded ? new HashSet<>(processCounts.keySet()) : null;
+        }
+    }
+
+    public synchronized boolean isLive() {
+        return seeded;
+    }
+
+    /**
+     * Drop the processes of packages that were just force-stopped, which
+     * takes their native children along as well.
+     */
+    public synchronized void onPackagesStopped(Collection<String> packageNames) {
+        if (!seeded) {
+            return;
+        }
+        Iterator<String> iterator = processes.values().iterator();
+        while (iterator.hasNext()) {
+            if (packageNames.contains(iterator.next())) {
+                iterator.remove();
+            }
+        }
+        for (String packageName : packageNames) {
+            processCounts.remove(packageName);
+        }
+    }
+
+    /**
+     * Count the next start of each package within
+     * {@link AppConstants#RELAUNCH_WATCH_WINDOW_MS} as a relaunch. Returns
+     * false, watching nothing, if the event stream is not running.
+     */
+    public synchronized boolean watchRelaunches(Collection<String> packageNames) {
+        if (!seeded) {
+            return false;
+        }
+        long deadline = SystemClock.elapsedRealtime() + AppConstants.RELAUNCH_WATCH_WINDOW_MS;
+        for (String packageName : packageNames) {
+            relaunchWatches.put(packageName, deadline);
+        }
+        return true;
+    }
+
+    private void run() {
+        long reconnectDelay = MIN_RECONNECT_DELAY_MS;
+        while (!Thread.currentThread().isInterrupted()) {
+            if (shellManager.hasAnyShellPermission()) {
+                if (follow()) {
+                    reconnectDelay = MIN_RECONNECT_DELAY_MS;
+                }
+            }
+            synchronized (this) {
+                if (reader != Thread.currentThread()) {
+                    return;
+                }
+                clearTable();
+            }
+            try {
+                Thread.sleep(reconnectDelay);
+            } catch (InterruptedException e) {
+                return;
+            }
+            reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY_MS);
+        }
+    }
+
+    /**
+     * Follow the event log until it ends or the monitor is released. Returns
+     * true if events were being applied, so the reconnect delay can reset.
+     */
+    private boolean follow() {
+        ShellLineStream opened;
+        try {
+            opened = shellManager.openLineStream(COMMAND, 0);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to follow the event log", e);
+            return false;
+        }
+        try (ShellLineStream events = opened) {
+            synchronized (this) {
+                if (reader != Thread.currentThread()) {
+                    return false;
+                }
+                stream = events;
+            }
+            // Seed after the stream is open, so nothing between the two is missed
+            if (!seed()) {
+                return false;
+            }
+            String line;
+            while ((line = events.readLine()) != null) {
+                apply(line);
+            }
+            Log.w(TAG, "Event log stream ended: " + events.stderr());
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Event log stream failed", e);
+            return false;
+        } finally {
+            synchronized (this) {
+                if (stream == opened) {
+                    stream = null;
+                }
+            }
+        }
+    }
+
+    private boolean seed() {
+        ProcessSnapshot snapshot = ProcessSnapshot.capture(shellManager);
+        if (snapshot == null) {
+            return false;
+        }
+        synchronized (this) {
+            if (reader == null) {
+                return false;
+            }
+            processes.clear();
+            processCounts.clear();
+            for (int row = 0; row < snapshot.size(); row++) {
+                String packageName = snapshot.packageName(row);
+                if (packageName != null) {
+                    add(snapshot.pid(row), packageName);
+                }
+            }
+            seeded = true;
+            seededAt = SystemClock.elapsedRealtime();
+            expireRelaunchWatches(seededAt);
+        }
+        Log.d(TAG, "Seeded process table with " + snapshot.packageCount() + " packages");
+        return true;
+    }
+
+    private void apply(String line) {
+        String[] fields = parseEvent(line);
+        if (fields == null) {
+            return;
+        }
+        String relaunched = null;
+        synchronized (this) {
+            if (!seeded) {
+                return;
+            }
+            try {
+                if (line.contains(TAG_PROC_START)) {
+                    // [user, pid, uid, process name, hosting type, hosting component]
+                    if (fields.length < 4) {
+                        return;
+                    }
+                    int pid = Integer.parseInt(fields[1].trim());
+                    int uid = Integer.parseInt(fields[2].trim());
+                    String packageName = resolvePackage(uid, fields[3].trim(),
+                            fields.length > 5 ? fields[5].trim() : null);
+                    if (packageName == null) {
+                        return;
+                    }
+                    remove(pid);
+                    add(pid, packageName);
+                    expireRelaunchWatches(SystemClock.elapsedRealtime());
+                    if (relaunchWatches.remove(packageName) != null) {
+                        relaunched = packageName;
+                    }
+                } else if (fields.length >= 2) {
+                    // am_proc_died and am_kill: [user, pid, process name, ...]
+                    remove(Integer.parseInt(fields[1].trim()));
+                }
+            } catch (NumberFormatException e) {
+                return;
+            }
+        }
+        if (relaunched != null) {
+            recordRelaunch(relaunched);
+        }
+    }
+
+    /**
+     * Owning package of a newly started process, attributed the same way as
+     * in {@link ProcessSnapshot}: by process name for app uids, and by the
+     * hosting component for isolated processes whose host is running.
+     */
+    private String resolvePackage(int uid, String processName, String component) {
+        if (ProcessSnapshot.isApplicationUid(uid)) {
+            return packagePrefix(processName);
+        }
+        if (!ProcessSnapshot.isIsolatedUid(uid)) {
+            return null;
+        }
+        String host = null;
+        if (component != null) {
+            int slash = component.indexOf('/');
+            if (slash > 0) {
+                host = component.substring(component.startsWith("{") ? 1 : 0, slash);
+            }
+        }
+        if (host == null) {
+            host = packagePrefix(processName);
+        }
+        return host != null && processCounts.containsKey(host) ? host : null;
+    }
+
+    private static String packagePrefix(String processName) {
+        int colon = processName.indexOf(':');
+        String prefix = colon >= 0 ? processName.substring(0, colon) : processName;
+        return !prefix.isEmpty() && Character.isLetter(prefix.charAt(0)) && prefix.indexOf('.') > 0 ? prefix : null;
+    }
+
+    /**
+     * Fields of an event line's payload, or null if the line is not one of
+     * the followed events.
+     */
+    private static String[] parseEvent(String line) {
+        if (!line.contains(TAG_PROC_START) && !line.contains(TAG_PROC_DIED) && !line.contains(TAG_KILL)) {
+            return null;
+        }
+        int open = line.indexOf('[');
+        int close = line.lastIndexOf(']');
+        if (open < 0 || close <= open) {
+            return null;
+        }
+        return line.substring(open + 1, close).split(",", 6);
+    }
+
+    private void recordRelaunch(String packageName) {
+        Log.d(TAG, "Relaunch of " + packageName);
+        AppExecutors.forLane(AppExecutors.Lane.MAINTENANCE).execute(() ->
+                com.northmendo.Appzuku.db.AppDatabase.getInstance(context).appStatsDao()
+                        .incrementRelaunch(packageName, System.currentTimeMillis()));
+    }
+
+    private void add(int pid, String packageName) {
+        processes.put(pid, packageName);
+        Integer count = processCounts.get(packageName);
+        processCounts.put(packageName, count == null ? 1 : count + 1);
+    }
+
+    private void remove(int pid) {
+        String packageName = processes.remove(pid);
+        if (packageName == null) {
+            return;
+        }
+        Integer count = processCounts.get(packageName);
+        if (count == null || count <= 1) {
+            processCounts.remove(packageName);
+        } else {
+            processCounts.put(packageName, count - 1);
+        }
+    }
+
+    /**
+     * Drop the relaunch watches whose window closed before {@code now}, so
+     * packages that never start again do not stay watched.
+     */
+    private void expireRelaunchWatches(long now) {
+        if (relaunchWatches.isEmpty()) {
+            return;
+        }
+        relaunchWatches.values().removeIf(deadline -> deadline < now);
+    }
+
+    /**
+     * Forget the table until the next seed. Relaunch watches survive a
+     * reconnect; only {@link #release()} drops them.
+     */
+    private void clearTable() {
+        processes.clear();
+        processCounts.clear();
+        seeded = false;
+    }
+}
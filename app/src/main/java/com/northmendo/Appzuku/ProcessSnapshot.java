@@ -0,0 +1,676 @@
+package com.northmendo.Appzuku;
+
+import android.util.Log;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Table of every running process, read from /proc in one shell round trip.
+ * The script below only uses shell builtins, so it costs one subshell no
+ * matter how many processes there are. Each output line is
+ * {@code pid uid ppid rssKb oomScoreAdj state name}, where name is argv[0]
+ * and may be empty for kernel threads.
+ * <p>
+ * The table is columnar: one primitive array per field, indexed by row, with
+ * per-package totals precomputed and sorted so lookups by package name do not
+ * allocate. It is filled from the persistent shell session, so taking a
+ * snapshot does not start a process. The session still hands over each line
+ * as a String and keeps the last 16 KB of them for diagnostics until the
+ * script ends; a few hundred short lines per snapshot did not justify a
+ * byte-level reader next to the sentinel framing every other command uses.
+ * The shared {@link Parser} adds no garbage of its own beyond the snapshot's
+ * arrays and names it has not seen before.
+ * <p>
+ * Every app process is attributed to the package that owns it, so a
+ * package's total covers its whole process tree: ":service" and ":remote"
+ * processes by name, native children by uid, and isolated or sandboxed
+ * processes (which run under throwaway uids) by name or by their parent.
+ */
+public final class ProcessSnapshot {
+    private static final String TAG = "ProcessSnapshot";
+
+    // Application uids are 10000-19999 within each Android user (100000 uids apart)
+    static final int PER_USER_RANGE = 100000;
+    static final int FIRST_APPLICATION_UID = 10000;
+    private static final int LAST_APPLICATION_UID = 19999;
+    // Isolated services and app zygote children, 90000-99999
+    private static final int FIRST_ISOLATED_UID = 90000;
+    private static final int LAST_ISOLATED_UID = 99999;
+    // ProcessList adj levels
+    private static final int VISIBLE_APP_ADJ = 100;
+    private static final int CACHED_APP_MIN_ADJ = 900;
+
+    static final String COMMAND = "( cd /proc && for p in [0-9]*; do"
+            + " uid=; ppid=; st=; rss=0; adj=0; name=;"
+            + " while read -r k v _; do case $k in"
+            + " State:) st=$v;; PPid:) ppid=$v;; Uid:) uid=$v;; VmRSS:) rss=$v; break;;"
+            + " esac; done 2>/dev/null < $p/status;"
+            + " [ -n \"$uid\" ] || continue;"
+            + " read -r adj 2>/dev/null < $p/oom_score_adj;"
+            + " IFS= read -r -d '' name 2>/dev/null < $p/cmdline;"
+            + " echo \"$p $uid $ppid $rss ${adj:-0} $st $name\";"
+            + " done )";
+
+    private static final Parser parser = new Parser();
+
+    private final int size;
+    private final int[] pids;
+    private final int[] uids;
+    private final int[] ppids;
+    private final long[] rssKbs;
+    private final int[] oomScoreAdjs;
+    private final byte[] states;
+    private final String[] names;
+    private final String[] packageNames;
+    // Distinct app packages, sorted by name, with their summed RSS
+    private final String[] packages;
+    private final long[] packageRssKbs;
+
+    private ProcessSnapshot(int size, int[] pids, int[] uids, int[] ppids, long[] rssKbs, int[] oomScoreAdjs,
+            byte[] states, String[] names, String[] packageNames, String[] packages, long[] packageRssKbs) {
+        this.size = size;
+        this.pids = pids;
+        this.uids = uids;
+        this.ppids = ppids;
+        this.rssKbs = rssKbs;
+        this.oomScoreAdjs = oomScoreAdjs;
+        this.states = states;
+        this.names = names;
+        this.packageNames = packageNames;
+        this.packages = packages;
+        this.packageRssKbs = packageRssKbs;
+    }
+
+    /**
+     * Take a snapshot through the shell, or return null if the shell failed
+     * or timed out. This method is blocking and should be called from a
+     * background thread.
+     */
+    public static ProcessSnapshot capture(ShellManager shellManager) {
+        // The parser carries state from line to line, so it is held for the whole command
+        synchronized (parser) {
+            parser.begin();
+            ShellManager.ShellResult result = shellManager.runShellCommandForEachLine(COMMAND, parser::acceptLine);
+            ProcessSnapshot snapshot = parser.finish();
+            // Exit code -1 means the shell itself failed rather than the script
+            if (result.timedOut() || (result.exitCode() == -1 && !result.succeeded()) || snapshot.size == 0) {
+                Log.w(TAG, "Process snapshot failed: " + result.stderr());
+                return null;
+            }
+            return snapshot;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int pid(int row) {
+        return pids[row];
+    }
+
+    public int uid(int row) {
+        return uids[row];
+    }
+
+    public int ppid(int row) {
+        return ppids[row];
+    }
+
+    public long rssKb(int row) {
+        return rssKbs[row];
+    }
+
+    public int oomScoreAdj(int row) {
+        return oomScoreAdjs[row];
+    }
+
+    public char state(int row) {
+        return (char) states[row];
+    }
+
+    /**
+     * Process name (argv[0]); empty for kernel threads.
+     */
+    public String name(int row) {
+        return names[row];
+    }
+
+    /**
+     * Package the process is attributed to, or null for processes no app owns.
+     */
+    public String packageName(int row) {
+        return packageNames[row];
+    }
+
+    public boolean isAppProcess(int row) {
+        return isApplicationUid(uids[row]);
+    }
+
+    /**
+     * Whether the process runs under an isolated uid (isolated services,
+     * browser renderers and other sandboxed processes).
+     */
+    public boolean isIsolatedProcess(int row) {
+        return isIsolatedUid(uids[row]);
+    }
+
+    public boolean isVisible(int row) {
+        return oomScoreAdjs[row] <= VISIBLE_APP_ADJ;
+    }
+
+    public boolean isCached(int row) {
+        return oomScoreAdjs[row] >= CACHED_APP_MIN_ADJ;
+    }
+
+    /**
+     * Number of packages with at least one running app process.
+     */
+    public int packageCount() {
+        return packages.length;
+    }
+
+    public String packageAt(int index) {
+        return packages[index];
+    }
+
+    /**
+     * Resident memory of the package at {@code index}, in KB, summed over its
+     * whole process tree.
+     */
+    public long packageRssKbAt(int index) {
+        return packageRssKbs[index];
+    }
+
+    /**
+     * Summed resident memory of a package in KB, or -1 if it is not running.
+     */
+    public long getPackageRssKb(String packageName) {
+        int index = Arrays.binarySearch(packages, packageName);
+        return index >= 0 ? packageRssKbs[index] : -1;
+    }
+
+    public boolean isPackageRunning(String packageName) {
+        return Arrays.binarySearch(packages, packageName) >= 0;
+    }
+
+    /**
+     * Packages with at least one running app process, as a new set.
+     */
+    public Set<String> getPackages() {
+        return new HashSet<>(Arrays.asList(packages));
+    }
+
+    static boolean isApplicationUid(int uid) {
+        int appId = uid % PER_USER_RANGE;
+        return appId >= FIRST_APPLICATION_UID && appId <= LAST_APPLICATION_UID;
+    }
+
+    static boolean isIsolatedUid(int uid) {
+        int appId = uid % PER_USER_RANGE;
+        return appId >= FIRST_ISOLATED_UID && appId <= LAST_ISOLATED_UID;
+    }
+
+    /**
+     * Byte-level parser for the snapshot script's output, fed one line at a
+     * time between {@link #begin()} and {@link #finish()}. Each line is walked
+     * char by char and turned back into UTF-8 bytes in place, so names match
+     * the pool's byte keys without a copy of the line. One instance is reused
+     * for every capture: the name buffer, the row arrays and the name pool all
+     * persist, so the only allocations are the final arrays of each snapshot
+     * and the first sighting of a process name. Not thread-safe; callers hold
+     * its lock from begin to finish.
+     */
+    static final class Parser {
+        private static final int MAX_NAME_BYTES = 256;
+        // How far up the parent chain an unattributed app process is followed
+        private static final int MAX_ANCESTOR_DEPTH = 4;
+
+        private final byte[] nameBytes = new byte[MAX_NAME_BYTES];
+        private final long[] numbers = new long[5];
+        private final NamePool pool = new NamePool();
+
+        private int[] pids = new int[512];
+        private int[] uids = new int[512];
+        private int[] ppids = new int[512];
+        private long[] rssKbs = new long[512];
+        private int[] oomScoreAdjs = new int[512];
+        private byte[] states = new byte[512];
+        private NamePool.Entry[] entries = new NamePool.Entry[512];
+        private NamePool.Entry[] owners = new NamePool.Entry[512];
+        private final RowIndex rowsByPid = new RowIndex();
+        private final RowIndex rowsByUid = new RowIndex();
+        private int generation;
+
+        private int rows;
+        // Per-line state
+        private int field;
+        private long value;
+        private boolean negative;
+        private boolean hasDigits;
+        private boolean valid;
+        private byte state;
+        private int nameLength;
+
+        void begin() {
+            rows = 0;
+            pool.clearIfFull();
+        }
+
+        void acceptLine(String line) {
+            resetLine();
+            int length = line.length();
+            for (int i = 0; i < length; i++) {
+                char c = line.charAt(i);
+                if (c < 0x80) {
+                    accept((byte) c);
+                    continue;
+                }
+                // Only names can hold non-ASCII text, and rarely do; encode it back to UTF-8
+                int codePoint = line.codePointAt(i);
+                acceptCodePoint(codePoint);
+                i += Character.charCount(codePoint) - 1;
+            }
+            if (commitLine(rows)) {
+                rows++;
+            }
+        }
+
+        ProcessSnapshot finish() {
+            return build(rows);
+        }
+
+        private void acceptCodePoint(int codePoint) {
+            if (codePoint < 0x800) {
+                accept((byte) (0xC0 | codePoint >> 6));
+            } else {
+                if (codePoint < 0x10000) {
+                    accept((byte) (0xE0 | codePoint >> 12));
+                } else {
+                    accept((byte) (0xF0 | codePoint >> 18));
+                    accept((byte) (0x80 | (codePoint >> 12 & 0x3F)));
+                }
+                accept((byte) (0x80 | (codePoint >> 6 & 0x3F)));
+            }
+            accept((byte) (0x80 | (codePoint & 0x3F)));
+        }
+
+        private void accept(byte b) {
+            if (field < numbers.length) {
+                if (b == ' ') {
+                    if (hasDigits) {
+                        numbers[field++] = negative ? -value : value;
+                        value = 0;
+                        negative = false;
+                        hasDigits = false;
+                    }
+                } else if (b >= '0' && b <= '9') {
+                    value = value * 10 + (b - '0');
+                    hasDigits = true;
+                } else if (b == '-' && !hasDigits && !negative) {
+                    negative = true;
+                } else {
+                    valid = false;
+                }
+            } else if (field == numbers.length) {
+                if (b != ' ') {
+                    if (state == 0) {
+                        state = b;
+                    }
+                } else if (state != 0) {
+                    field++;
+                }
+            } else if (nameLength < nameBytes.length) {
+                nameBytes[nameLength++] = b;
+            }
+        }
+
+        private boolean commitLine(int row) {
+            if (!valid || field < numbers.length || state == 0) {
+                return false;
+            }
+            ensureCapacity(row + 1);
+            pids[row] = (int) numbers[0];
+            uids[row] = (int) numbers[1];
+            ppids[row] = (int) numbers[2];
+            rssKbs[row] = numbers[3];
+            oomScoreAdjs[row] = (int) numbers[4];
+            states[row] = state;
+            entries[row] = pool.intern(nameBytes, nameLength);
+            return true;
+        }
+
+        private void resetLine() {
+            field = 0;
+            value = 0;
+            negative = false;
+            hasDigits = false;
+            valid = true;
+            state = 0;
+            nameLength = 0;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity <= pids.length) {
+                return;
+            }
+            int grown = Math.max(capacity, pids.length * 2);
+            pids = Arrays.copyOf(pids, grown);
+            uids = Arrays.copyOf(uids, grown);
+            ppids = Arrays.copyOf(ppids, grown);
+            rssKbs = Arrays.copyOf(rssKbs, grown);
+            oomScoreAdjs = Arrays.copyOf(oomScoreAdjs, grown);
+            states = Arrays.copyOf(states, grown);
+            entries = Arrays.copyOf(entries, grown);
+            owners = Arrays.copyOf(owners, grown);
+        }
+
+        private ProcessSnapshot build(int rows) {
+            generation++;
+            attribute(rows);
+            String[] names = new String[rows];
+            String[] packageNames = new String[rows];
+            String[] packages = new String[rows];
+            long[] packageRssKbs = new long[rows];
+            int packageCount = 0;
+            for (int row = 0; row < rows; row++) {
+                names[row] = entries[row].name;
+                NamePool.Entry owner = owners[row];
+                entries[row] = null;
+                owners[row] = null;
+                if (owner == null) {
+                    continue;
+                }
+                packageNames[row] = owner.name;
+                if (owner.generation != generation) {
+                    owner.generation = generation;
+                    owner.slot = packageCount;
+                    packages[packageCount] = owner.name;
+                    packageRssKbs[packageCount] = 0;
+                    packageCount++;
+                }
+                packageRssKbs[owner.slot] += rssKbs[row];
+            }
+            sortByName(packages, packageRssKbs, packageCount);
+            return new ProcessSnapshot(rows,
+                    Arrays.copyOf(pids, rows),
+                    Arrays.copyOf(uids, rows),
+                    Arrays.copyOf(ppids, rows),
+                    Arrays.copyOf(rssKbs, rows),
+                    Arrays.copyOf(oomScoreAdjs, rows),
+                    Arrays.copyOf(states, rows),
+                    names,
+                    packageNames,
+                    Arrays.copyOf(packages, packageCount),
+                    Arrays.copyOf(packageRssKbs, packageCount));
+        }
+
+        /**
+         * Fill {@link #owners} with the owning package of each row. App
+         * processes named after a package own that package, which makes it
+         * live for this snapshot. Other app processes (native children) take
+         * the package of another process with their uid. Isolated processes
+         * are named after the package that started them, but are only credited
+         * to it if it is live, since WebView renderers carry the WebView
+         * provider's name rather than their host app's. Whatever is still
+         * unattributed inherits the owner of its nearest attributed ancestor.
+         */
+        private void attribute(int rows) {
+            rowsByPid.reset(rows);
+            rowsByUid.reset(rows);
+            for (int row = 0; row < rows; row++) {
+                rowsByPid.put(pids[row], row);
+                NamePool.Entry packageEntry = entries[row].packageEntry;
+                if (packageEntry == null || !isApplicationUid(uids[row])) {
+                    owners[row] = null;
+                    continue;
+                }
+                owners[row] = packageEntry;
+                packageEntry.liveGeneration = generation;
+                // Prefer a package's main process over its ":service" ones
+                if (packageEntry == entries[row] || rowsByUid.get(uids[row]) < 0) {
+                    rowsByUid.put(uids[row], row);
+                }
+            }
+
+            for (int row = 0; row < rows; row++) {
+                if (owners[row] != null || !(isApplicationUid(uids[row]) || isIsolatedUid(uids[row]))) {
+                    continue;
+                }
+                NamePool.Entry owner = directOwner(row);
+                for (int depth = 0, ancestor = row; owner == null && depth < MAX_ANCESTOR_DEPTH; depth++) {
+                    ancestor = rowsByPid.get(ppids[ancestor]);
+                    if (ancestor < 0 || ancestor == row) {
+                        break;
+                    }
+                    owner = owners[ancestor] != null ? owners[ancestor] : directOwner(ancestor);
+                }
+                owners[row] = owner;
+            }
+        }
+
+        /**
+         * Owner of a row that can be told from the row itself and the live
+         * packages, without looking at its ancestors.
+         */
+        private NamePool.Entry directOwner(int row) {
+            int uid = uids[row];
+            if (isApplicationUid(uid)) {
+                int sibling = rowsByUid.get(uid);
+                return sibling >= 0 ? owners[sibling] : null;
+            }
+            if (isIsolatedUid(uid)) {
+                NamePool.Entry packageEntry = entries[row].packageEntry;
+                return packageEntry != null && packageEntry.liveGeneration == generation ? packageEntry : null;
+            }
+            return null;
+        }
+
+        /**
+         * Shell sort of the first {@code count} packages, keeping their RSS
+         * values in step, without boxing or temporary arrays.
+         */
+        private static void sortByName(String[] packages, long[] rssKbs, int count) {
+            for (int gap = count / 2; gap > 0; gap /= 2) {
+                for (int i = gap; i < count; i++) {
+                    String name = packages[i];
+                    long rss = rssKbs[i];
+                    int j = i;
+                    while (j >= gap && packages[j - gap].compareTo(name) > 0) {
+                        packages[j] = packages[j - gap];
+                        rssKbs[j] = rssKbs[j - gap];
+                        j -= gap;
+                    }
+                    packages[j] = name;
+                    rssKbs[j] = rss;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reusable int-to-row map (pid or uid to row) for one snapshot. Slots are
+     * stamped instead of cleared, so {@link #reset} is constant time unless
+     * the table has to grow.
+     */
+    private static final class RowIndex {
+        private int[] keys = new int[1024];
+        private int[] rows = new int[1024];
+        private int[] stamps = new int[1024];
+        private int stamp;
+
+        void reset(int expectedSize) {
+            stamp++;
+            int capacity = keys.length;
+            while (capacity < expectedSize * 2) {
+                capacity *= 2;
+            }
+            if (capacity != keys.length) {
+                keys = new int[capacity];
+                rows = new int[capacity];
+                stamps = new int[capacity];
+            }
+        }
+
+        void put(int key, int row) {
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (stamps[i] == stamp && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            rows[i] = row;
+            stamps[i] = stamp;
+        }
+
+        /**
+         * Row stored under {@code key}, or -1.
+         */
+        int get(int key) {
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; stamps[i] == stamp; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return rows[i];
+                }
+            }
+            return -1;
+        }
+
+        private static int mix(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * Process names seen so far, looked up by their raw bytes so a known name
+     * costs no allocation. Each entry also links to the entry of its package
+     * (the part before ':'), or null if the name does not look like a package.
+     * The pool is cleared if it ever grows past {@link #MAX_ENTRIES}, which
+     * only happens with many short-lived, uniquely named processes.
+     */
+    private static final class NamePool {
+        private static final int MAX_ENTRIES = 4096;
+
+        private Entry[] table = new Entry[1024];
+        private int count;
+
+        static final class Entry {
+            final byte[] bytes;
+            final int hash;
+            final String name;
+            Entry packageEntry;
+            // Scratch state for Parser.build, valid while generation matches
+            int generation;
+            int slot;
+            // Parser generation in which an app process named after this package was seen
+            int liveGeneration;
+
+            Entry(byte[] bytes, int hash) {
+                this.bytes = bytes;
+                this.hash = hash;
+                this.name = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+
+        /**
+         * Called between snapshots, so entries of one snapshot never mix with
+         * their own replacements.
+         */
+        void clearIfFull() {
+            if (count >= MAX_ENTRIES) {
+                Arrays.fill(table, null);
+                count = 0;
+            }
+        }
+
+        Entry intern(byte[] source, int length) {
+            int hash = hash(source, length);
+            Entry entry = find(source, length, hash);
+            if (entry != null) {
+                return entry;
+            }
+            entry = new Entry(Arrays.copyOf(source, length), hash);
+            insert(entry);
+            if (length > 0 && isLetter(source[0]) && indexOf(source, length, (byte) '.') > 0) {
+                int colon = indexOf(source, length, (byte) ':');
+                if (colon < 0) {
+                    entry.packageEntry = entry;
+                } else if (colon > 0) {
+                    entry.packageEntry = intern(source, colon);
+                }
+            }
+            return entry;
+        }
+
+        private Entry find(byte[] source, int length, int hash) {
+            int mask = table.length - 1;
+            for (int i = hash & mask; table[i] != null; i = (i + 1) & mask) {
+                Entry entry = table[i];
+                if (entry.hash == hash && matches(entry.bytes, source, length)) {
+                    return entry;
+                }
+            }
+            return null;
+        }
+
+        private void insert(Entry entry) {
+            if ((count + 1) * 2 > table.length) {
+                Entry[] old = table;
+                table = new Entry[old.length * 2];
+                for (Entry existing : old) {
+                    if (existing != null) {
+                        place(existing);
+                    }
+                }
+            }
+            place(entry);
+            count++;
+        }
+
+        private void place(Entry entry) {
+            int mask = table.length - 1;
+            int i = entry.hash & mask;
+            while (table[i] != null) {
+                i = (i + 1) & mask;
+            }
+            table[i] = entry;
+        }
+
+        private static boolean matches(byte[] bytes, byte[] source, int length) {
+            if (bytes.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (bytes[i] != source[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int hash(byte[] source, int length) {
+            int hash = 1;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + source[i];
+            }
+            return hash ^ (hash >>> 16);
+        }
+
+        private static int indexOf(byte[] source, int length, byte target) {
+            for (int i = 0; i < length; i++) {
+                if (source[i] == target) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static boolean isLetter(byte b) {
+            return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+        }
+    }
+}
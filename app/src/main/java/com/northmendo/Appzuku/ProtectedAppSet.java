@@ -0,0 +1,110 @@
+package com.northmendo.Appzuku;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.ContentObserver;
+import android.provider.Settings;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The packages {@link ProtectedApps} protects, resolved once instead of on
+ * every lookup: the hardcoded list, the keyboard, the launcher and the
+ * holders of critical roles ({@link CriticalRoleResolver}). The set is marked
+ * stale when the default input method changes, when a package is installed,
+ * changed or removed, when the preferred (home) activity changes and when
+ * any role changes; the next lookup resolves it again. Lookups in between
+ * are a hash set membership check.
+ */
+final class ProtectedAppSet {
+    // Sent by PackageManager to registered receivers; not public API
+    private static final String ACTION_PREFERRED_ACTIVITY_CHANGED =
+            "android.intent.action.ACTION_PREFERRED_ACTIVITY_CHANGED";
+
+    private static ProtectedAppSet instance;
+
+    private final Context context;
+    private final CriticalRoleResolver roleResolver;
+    private volatile Set<String> packages;
+    private volatile boolean stale = true;
+
+    private ProtectedAppSet(Context context) {
+        this.context = context;
+        this.roleResolver = new CriticalRoleResolver(context, this::invalidate);
+
+        context.getContentResolver().registerContentObserver(
+                Settings.Secure.getUriFor(Settings.Secure.DEFAULT_INPUT_METHOD), false,
+                new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        invalidate();
+                    }
+                });
+
+        BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidate();
+            }
+        };
+        IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addDataScheme("package");
+        context.registerReceiver(receiver, packageFilter);
+        context.registerReceiver(receiver, new IntentFilter(ACTION_PREFERRED_ACTIVITY_CHANGED));
+    }
+
+    static synchronized ProtectedAppSet getInstance(Context context) {
+        if (instance == null) {
+            instance = new ProtectedAppSet(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    boolean contains(String packageName) {
+        return packageName != null && get().contains(packageName);
+    }
+
+    /**
+     * The protected packages, resolved again first if they are stale.
+     */
+    Set<String> get() {
+        Set<String> current = packages;
+        if (!stale && current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (stale || packages == null) {
+                // Cleared first, so a change during the resolve marks it stale again
+                stale = false;
+                packages = resolve();
+            }
+            return packages;
+        }
+    }
+
+    void invalidate() {
+        stale = true;
+    }
+
+    private Set<String> resolve() {
+        Set<String> resolved = new HashSet<>(ProtectedApps.PROTECTED_PACKAGES);
+        String keyboard = ProtectedApps.getCurrentKeyboardPackage(context);
+        if (keyboard != null) {
+            resolved.add(keyboard);
+        }
+        String launcher = ProtectedApps.getCurrentLauncherPackage(context);
+        if (launcher != null) {
+            resolved.add(launcher);
+        }
+        resolved.addAll(roleResolver.resolve());
+        return Collections.unmodifiableSet(resolved);
+    }
+}
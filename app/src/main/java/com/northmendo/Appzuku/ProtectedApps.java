@@ -2,7 +2,6 @@ package com.northmendo.Appzuku;
 
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.provider.Settings;
@@ -11,8 +10,6 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
-import static com.northmendo.Appzuku.PreferenceKeys.*;
-
 /**
  * Centralized list of protected apps that should never be killed.
  * These are critical system apps that would cause device instability if
@@ -28,7 +25,7 @@ public final class ProtectedApps {
      * Hardcoded list of protected package names.
      * These apps are critical for device operation.
      */
-    private static final Set<String> PROTECTED_PACKAGES = new HashSet<>(Arrays.asList(
+    static final Set<String> PROTECTED_PACKAGES = new HashSet<>(Arrays.asList(
             "com.northmendo.Appzuku", // Self
             "com.google.android.gms", // Google Play Services
             "com.android.systemui", // System UI
@@ -40,36 +37,17 @@ public final class ProtectedApps {
     ));
 
     /**
-     * Check if a package is protected from being killed.
-     * This includes both system-protected apps and user-whitelisted apps.
+     * Check if a package is protected from being killed: the hardcoded list,
+     * the current keyboard and launcher, and apps holding a critical role such
+     * as the default SMS app or an accessibility service. The set is cached
+     * and kept current by {@link ProtectedAppSet}.
      *
      * @param context     Application context
      * @param packageName Package name to check
      * @return true if the package should not be killed
      */
     public static boolean isProtected(Context context, String packageName) {
-        if (packageName == null) {
-            return false;
-        }
-
-        // Check hardcoded list
-        if (PROTECTED_PACKAGES.contains(packageName)) {
-            return true;
-        }
-
-        // Check if it's the current keyboard
-        String currentKeyboard = getCurrentKeyboardPackage(context);
-        if (packageName.equals(currentKeyboard)) {
-            return true;
-        }
-
-        // Check if it's the current launcher
-        String currentLauncher = getCurrentLauncherPackage(context);
-        if (packageName.equals(currentLauncher)) {
-            return true;
-        }
-
-        return false;
+        return ProtectedAppSet.getInstance(context).contains(packageName);
     }
 
     /**
@@ -83,9 +61,8 @@ public final class ProtectedApps {
         if (packageName == null) {
             return false;
         }
-        SharedPreferences prefs = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
-        Set<String> whitelisted = prefs.getStringSet(KEY_WHITELISTED_APPS, new HashSet<>());
-        return whitelisted.contains(packageName);
+        return AppPolicyStore.getInstance(context).has(packageName,
+                com.northmendo.Appzuku.db.AppPolicy.FLAG_WHITELISTED);
     }
 
     /**
@@ -0,0 +1,155 @@
+package com.northmendo.Appzuku;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Long-lived root shell shared by every ShellManager in the process.
+ * There are two: the interactive lane has its own shell (see
+ * {@link #forCurrentThread()}), so a user-initiated kill never waits for a
+ * background scan that is still reading a large dump from the main one.
+ * Instead of forking su for each command, commands are written to one su
+ * process and framed with unique start/end sentinels (see {@link CommandFraming}).
+ * The exit code of each command is captured with $? and reported back with
+ * the end sentinel. Stderr is drained by a {@link StderrPump} for the life
+ * of the shell. If the shell dies it is restarted transparently on the next
+ * command.
+ */
+final class RootShellSession {
+    private static final String TAG = "RootShellSession";
+
+    private static RootShellSession instance;
+    private static RootShellSession interactiveInstance;
+
+    private Process process;
+    private DataOutputStream stdin;
+    private BufferedReader stdout;
+    private StderrPump stderrPump;
+
+    private RootShellSession() {
+    }
+
+    static synchronized RootShellSession getInstance() {
+        if (instance == null) {
+            instance = new RootShellSession();
+        }
+        return instance;
+    }
+
+    /**
+     * The interactive shell when called from an interactive lane thread,
+     * otherwise the main one.
+     */
+    static synchronized RootShellSession forCurrentThread() {
+        if (!AppExecutors.isInteractiveThread()) {
+            return getInstance();
+        }
+        if (interactiveInstance == null) {
+            interactiveInstance = new RootShellSession();
+        }
+        return interactiveInstance;
+    }
+
+    /**
+     * Write every command to the shell in one go and wait for one result per
+     * command, in order. A failing command does not stop the ones after it.
+     * Stdout lines reach {@code stdoutConsumer} on the calling thread; stderr
+     * lines reach {@code stderrConsumer}, prefixed, on the drain thread.
+     * If {@code watch} times out or is cancelled, the whole shell is killed so
+     * a hung command (or an unanswered su prompt) cannot block later callers;
+     * it is restarted on the next call.
+     *
+     * @throws IOException if the root shell could not be started or died before
+     *                     every command reported back
+     */
+    synchronized List<ShellManager.ShellResult> executeBatch(List<String> commands, ShellManager.OutputLimit limit,
+            Consumer<String> stdoutConsumer, Consumer<String> stderrConsumer, ShellWatchdog.Watch watch)
+            throws IOException {
+        if (watch.tripped()) {
+            return Collections.nCopies(commands.size(), watch.trippedResult());
+        }
+        CommandFraming.Batch batch = new CommandFraming.Batch(commands);
+
+        try {
+            ensureStarted();
+            batch.attach(stderrPump, limit, stderrConsumer);
+            writeScript(batch.script);
+        } catch (IOException e) {
+            // The shell died between commands; nothing ran yet, so restart and retry once.
+            Log.w(TAG, "Root shell unavailable, restarting: " + e.getMessage());
+            destroy();
+            ensureStarted();
+            batch = new CommandFraming.Batch(commands);
+            batch.attach(stderrPump, limit, stderrConsumer);
+            writeScript(batch.script);
+        }
+
+        watch.arm(ShellWatchdog.processKiller(process));
+        try {
+            List<ShellManager.ShellResult> results = batch.readResults(stdout, limit, stdoutConsumer, watch);
+            if (watch.tripped()) {
+                destroy();
+            }
+            return results;
+        } catch (IOException e) {
+            destroy();
+            throw e;
+        } catch (InterruptedException e) {
+            // The shell is somewhere inside the batch; it can no longer be reused
+            destroy();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for root shell");
+        } finally {
+            watch.disarm();
+        }
+    }
+
+    private void ensureStarted() throws IOException {
+        if (process != null && isAlive(process)) {
+            return;
+        }
+        destroy();
+        process = Runtime.getRuntime().exec("su");
+        stdin = new DataOutputStream(process.getOutputStream());
+        stdout = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        stderrPump = CommandFraming.startPump(new BufferedReader(new InputStreamReader(process.getErrorStream())));
+        Log.d(TAG, "Root shell started");
+    }
+
+    private void writeScript(String script) throws IOException {
+        stdin.writeBytes(script);
+        stdin.flush();
+    }
+
+    private void destroy() {
+        try {
+            if (stdin != null)
+                stdin.close();
+        } catch (IOException ignored) {
+        }
+        if (process != null) {
+            process.destroy();
+        }
+        process = null;
+        stdin = null;
+        stdout = null;
+        stderrPump = null;
+    }
+
+    private static boolean isAlive(Process process) {
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+}
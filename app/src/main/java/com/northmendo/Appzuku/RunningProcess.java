@@ -0,0 +1,57 @@
+package com.northmendo.Appzuku;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Snapshot of one running app process, as reported by the privileged service.
+ */
+public class RunningProcess implements Parcelable {
+    public final int pid;
+    public final int uid;
+    public final int importance;
+    public final String processName;
+    public final String[] packages;
+
+    public RunningProcess(int pid, int uid, int importance, String processName, String[] packages) {
+        this.pid = pid;
+        this.uid = uid;
+        this.importance = importance;
+        this.processName = processName;
+        this.packages = packages != null ? packages : new String[0];
+    }
+
+    protected RunningProcess(Parcel in) {
+        pid = in.readInt();
+        uid = in.readInt();
+        importance = in.readInt();
+        processName = in.readString();
+        packages = in.createStringArray();
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(pid);
+        dest.writeInt(uid);
+        dest.writeInt(importance);
+        dest.writeString(processName);
+        dest.writeStringArray(packages);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<RunningProcess> CREATOR = new Creator<RunningProcess>() {
+        @Override
+        public RunningProcess createFromParcel(Parcel in) {
+            return new RunningProcess(in);
+        }
+
+        @Override
+        public RunningProcess[] newArray(int size) {
+            return new RunningProcess[size];
+        }
+    };
+}
@@ -0,0 +1,157 @@
+package com.northmendo.Appzuku;
+
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Packages the system would bring straight back after a kill, parsed in one
+ * pass from {@link #COMMAND}: packages running a foreground service, packages
+ * with a service bound by another app's process, and packages that own an
+ * active or playing media session. Killing these only starts a kill and
+ * relaunch cycle.
+ */
+final class ServiceStateSnapshot {
+    private static final String TAG = "ServiceStateSnapshot";
+
+    static final String COMMAND = "dumpsys activity services; dumpsys media_session";
+
+    private static final Pattern SERVICE_RECORD = Pattern.compile("ServiceRecord\\{\\S+ u\\d+ ([A-Za-z][\\w.]*)/");
+    // Client process of a binding and its uid: "ProcessRecord{abc 12345:com.bar:remote/u0a123}",
+    // with the uid written as "1000" below the first user, "u10s1000" for a system
+    // uid of another user and "u0a123" for an app
+    private static final Pattern CLIENT_PROCESS = Pattern.compile(
+            "ProcessRecord\\{\\S+ \\d+:([A-Za-z][\\w.]*)[^/\\s]*/(?:(\\d+)|u(\\d+)([as])(\\d+))");
+    private static final String PLAYING_STATE = "state=PlaybackState {state=3";
+
+    private enum Section {
+        NONE, SERVICES, MEDIA
+    }
+
+    private final Set<String> foregroundServices = new HashSet<>();
+    private final Set<String> boundByOtherApps = new HashSet<>();
+    private final Set<String> activeMediaSessions = new HashSet<>();
+
+    private ServiceStateSnapshot() {
+    }
+
+    /**
+     * Take a snapshot through the shell, or return null if the services dump
+     * failed. A missing media session dump only leaves that part empty. This
+     * method is blocking and should be called from a background thread.
+     */
+    static ServiceStateSnapshot capture(ShellManager shellManager) {
+        ServiceStateSnapshot snapshot = new ServiceStateSnapshot();
+        Parser parser = new Parser(snapshot);
+        ShellManager.ShellResult result = shellManager.runShellCommandForEachLine(COMMAND, parser::accept);
+        if (result.timedOut() || !parser.sawServices) {
+            Log.w(TAG, "Service dump failed: " + result.stderr());
+            return null;
+        }
+        return snapshot;
+    }
+
+    public boolean hasForegroundService(String packageName) {
+        return foregroundServices.contains(packageName);
+    }
+
+    public boolean hasActiveMediaSession(String packageName) {
+        return activeMediaSessions.contains(packageName);
+    }
+
+    /**
+     * Whether a process of another app holds a binding to one of the
+     * package's services. Bindings from processes without an app uid, such
+     * as system_server, and from built-in protected packages such as SystemUI
+     * do not count.
+     */
+    public boolean isBoundByOtherApp(String packageName) {
+        return boundByOtherApps.contains(packageName);
+    }
+
+    private static final class Parser {
+        private final ServiceStateSnapshot snapshot;
+        private Section section = Section.NONE;
+        boolean sawServices;
+        // Service or media session whose details are being read
+        private String currentPackage;
+
+        Parser(ServiceStateSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        void accept(String line) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("ACTIVITY MANAGER SERVICES")) {
+                section = Section.SERVICES;
+                sawServices = true;
+                currentPackage = null;
+                return;
+            }
+            if (trimmed.startsWith("MEDIA SESSION SERVICE")) {
+                section = Section.MEDIA;
+                currentPackage = null;
+                return;
+            }
+            if (section == Section.SERVICES) {
+                acceptService(trimmed);
+            } else if (section == Section.MEDIA) {
+                acceptMediaSession(trimmed);
+            }
+        }
+
+        private void acceptService(String line) {
+            if (line.startsWith("* ServiceRecord{")) {
+                Matcher matcher = SERVICE_RECORD.matcher(line);
+                currentPackage = matcher.find() ? matcher.group(1) : null;
+                return;
+            }
+            // Later sections list connections by client, not by service
+            if (line.startsWith("Connection bindings")) {
+                currentPackage = null;
+                return;
+            }
+            if (currentPackage == null) {
+                return;
+            }
+            if (line.startsWith("isForeground=true")) {
+                snapshot.foregroundServices.add(currentPackage);
+            } else if (line.contains("ProcessRecord{")) {
+                Matcher matcher = CLIENT_PROCESS.matcher(line);
+                // SystemUI runs under an app uid, so the built-in protected list screens it out
+                if (matcher.find() && !matcher.group(1).equals(currentPackage)
+                        && ProcessSnapshot.isApplicationUid(parseClientUid(matcher))
+                        && !ProtectedApps.PROTECTED_PACKAGES.contains(matcher.group(1))) {
+                    snapshot.boundByOtherApps.add(currentPackage);
+                }
+            }
+        }
+
+        private static int parseClientUid(Matcher matcher) {
+            try {
+                if (matcher.group(2) != null) {
+                    return Integer.parseInt(matcher.group(2));
+                }
+                int appId = Integer.parseInt(matcher.group(5));
+                if ("a".equals(matcher.group(4))) {
+                    appId += ProcessSnapshot.FIRST_APPLICATION_UID;
+                }
+                return Integer.parseInt(matcher.group(3)) * ProcessSnapshot.PER_USER_RANGE + appId;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        private void acceptMediaSession(String line) {
+            if (line.startsWith("package=")) {
+                currentPackage = line.substring("package=".length()).trim();
+            } else if (currentPackage != null
+                    && (line.startsWith("active=true") || line.startsWith(PLAYING_STATE))) {
+                snapshot.activeMediaSessions.add(currentPackage);
+            }
+        }
+    }
+}
@@ -2,8 +2,6 @@ package com.northmendo.Appzuku;
 
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
 import android.graphics.Typeface;
 import android.graphics.drawable.ColorDrawable;
 import android.net.Uri;
@@ -49,7 +47,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Locale;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import static com.northmendo.Appzuku.PreferenceKeys.*;
 import static com.northmendo.Appzuku.AppConstants.*;
@@ -74,7 +71,13 @@ public class SettingsActivity extends BaseActivity {
     private BackgroundAppManager appManager;
     private BackupManager backupManager;
     private final Handler handler = new Handler(Looper.getMainLooper());
-    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ExecutorService executor = AppExecutors.newSerialExecutor();
+    // smaps_rollup of other apps is only readable as root
+    private final ShellManager.CapabilityListener preciseMemoryAvailability = capability -> {
+        if (binding != null) {
+            binding.switchPreciseMemory.setEnabled(capability == ShellManager.Capability.ROOT);
+        }
+    };
 
     private final ActivityResultLauncher<String> createBackupLauncher = registerForActivityResult(
             new ActivityResultContracts.CreateDocument("application/json"),
@@ -99,7 +102,7 @@ public class SettingsActivity extends BaseActivity {
         setContentView(binding.getRoot());
 
         // Initialize app manager for dialogs
-        ShellManager shellManager = new ShellManager(this.getApplicationContext(), handler, executor);
+        ShellManager shellManager = ShellManager.getInstance(this);
         appManager = new BackgroundAppManager(this.getApplicationContext(), handler, executor, shellManager);
         backupManager = new BackupManager(this);
 
@@ -151,6 +154,10 @@ public class SettingsActivity extends BaseActivity {
         boolean showPersistentApps = sharedPreferences.getBoolean(KEY_SHOW_PERSISTENT_APPS, false);
         binding.switchShowPersistent.setChecked(showPersistentApps);
 
+        // Load precise memory mode; it has no effect without root
+        binding.switchPreciseMemory.setChecked(sharedPreferences.getBoolean(KEY_PRECISE_MEMORY, false));
+        ShellManager.getInstance(this).addCapabilityListener(preciseMemoryAvailability);
+
         // Set version text
         try {
             String versionName = getPackageManager().getPackageInfo(getPackageName(), 0).versionName;
@@ -232,6 +239,11 @@ public class SettingsActivity extends BaseActivity {
             sharedPreferences.edit().putBoolean(KEY_SHOW_PERSISTENT_APPS, isChecked).apply();
         });
 
+        // Precise memory mode toggle
+        binding.switchPreciseMemory.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            sharedPreferences.edit().putBoolean(KEY_PRECISE_MEMORY, isChecked).apply();
+        });
+
         // Whitelist
         binding.layoutWhitelist.setOnClickListener(v -> showWhitelistDialog());
 
@@ -244,14 +256,14 @@ public class SettingsActivity extends BaseActivity {
         binding.layoutBackgroundRestriction.setOnClickListener(v -> showBackgroundRestrictionDialog());
         binding.layoutReapplyRestrictions.setVisibility(
                 appManager.supportsBackgroundRestriction() ? View.VISIBLE : View.GONE);
-        binding.layoutReapplyRestrictions.setOnClickListener(v -> {
-            Set<String> savedRestrictions = appManager.getBackgroundRestrictedApps();
-            if (savedRestrictions.isEmpty()) {
-                Toast.makeText(this, "No saved background restrictions to re-apply", Toast.LENGTH_SHORT).show();
-                return;
-            }
-            appManager.reapplySavedBackgroundRestrictions(null);
-        });
+        binding.layoutReapplyRestrictions.setOnClickListener(v -> appManager.getBackgroundRestrictedApps(
+                savedRestrictions -> {
+                    if (savedRestrictions.isEmpty()) {
+                        Toast.makeText(this, "No saved background restrictions to re-apply", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    appManager.applyBackgroundRestriction(savedRestrictions, null);
+                }));
 
         // Kill Mode
         binding.layoutKillMode.setOnClickListener(v -> showKillModeDialog());
@@ -272,6 +284,7 @@ public class SettingsActivity extends BaseActivity {
         binding.layoutRestrictionLog.setVisibility(
                 appManager.supportsBackgroundRestriction() ? View.VISIBLE : View.GONE);
         binding.layoutRestrictionLog.setOnClickListener(v -> showBackgroundRestrictionLogDialog());
+        binding.layoutShellDiagnostics.setOnClickListener(v -> showShellDiagnosticsDialog());
 
         // Backup & Restore
         binding.layoutBackupRestore.setOnClickListener(v -> showBackupRestoreDialog());
@@ -331,8 +344,7 @@ public class SettingsActivity extends BaseActivity {
         dialog.getButton(AlertDialog.BUTTON_POSITIVE).setTextColor(ContextCompat.getColor(this, R.color.dialog_button_text));
         dialog.getButton(AlertDialog.BUTTON_NEGATIVE).setTextColor(ContextCompat.getColor(this, R.color.dialog_button_text));
 
-        appManager.loadAllApps(allApps -> {
-            Set<String> blacklisted = appManager.getBlacklistedApps();
+        appManager.loadAllApps(com.northmendo.Appzuku.db.AppPolicy.FLAG_BLACKLISTED, (allApps, blacklisted) -> {
             FilterAppsAdapter filterAdapter = new FilterAppsAdapter(this, allApps, blacklisted);
             listView.setAdapter(filterAdapter);
             progressBar.setVisibility(View.GONE);
@@ -458,9 +470,10 @@ public class SettingsActivity extends BaseActivity {
                 dialog.setButton(AlertDialog.BUTTON_NEGATIVE, "Close", (d, w) -> d.dismiss());
                 if (appManager.supportsBackgroundRestriction() && !highRelaunchPackages.isEmpty()) {
                     dialog.setButton(AlertDialog.BUTTON_NEUTRAL, "Restrict Greedy Apps in Background", (d, w) -> {
-                        Set<String> currentRestricted = appManager.getBackgroundRestrictedApps();
-                        currentRestricted.addAll(highRelaunchPackages);
-                        appManager.applyBackgroundRestriction(currentRestricted, null);
+                        appManager.getBackgroundRestrictedApps(currentRestricted -> {
+                            currentRestricted.addAll(highRelaunchPackages);
+                            appManager.applyBackgroundRestriction(currentRestricted, null);
+                        });
                     });
                 }
                 dialog.show();
@@ -627,15 +640,8 @@ public class SettingsActivity extends BaseActivity {
         if (packageName == null || packageName.isEmpty()) {
             return packageName;
         }
-        try {
-            ApplicationInfo appInfo = getPackageManager().getApplicationInfo(packageName, 0);
-            CharSequence label = getPackageManager().getApplicationLabel(appInfo);
-            if (label != null) {
-                return label.toString();
-            }
-        } catch (PackageManager.NameNotFoundException ignored) {
-        }
-        return packageName;
+        String label = PackageMetadataCache.getInstance(this).getLabel(packageName);
+        return label != null ? label : packageName;
     }
 
     private double calculateOffenderScore(int killCount, int relaunchCount, long recoveredKb) {
@@ -924,8 +930,7 @@ public class SettingsActivity extends BaseActivity {
         whitelistDialog.getButton(AlertDialog.BUTTON_NEGATIVE).setTextColor(ContextCompat.getColor(this, R.color.dialog_button_text));
         whitelistDialog.getButton(AlertDialog.BUTTON_POSITIVE).setTextColor(ContextCompat.getColor(this, R.color.dialog_button_text));
 
-        appManager.loadAllApps(allApps -> {
-            Set<String> whitelistedApps = appManager.getWhitelistedApps();
+        appManager.loadAllApps(com.northmendo.Appzuku.db.AppPolicy.FLAG_WHITELISTED, (allApps, whitelistedApps) -> {
             FilterAppsAdapter filterAdapter = new FilterAppsAdapter(this, allApps, whitelistedApps);
             listView.setAdapter(filterAdapter);
             listView.setOnItemClickListener(null);
@@ -993,8 +998,7 @@ public class SettingsActivity extends BaseActivity {
         filterDialog.getButton(AlertDialog.BUTTON_NEGATIVE).setTextColor(ContextCompat.getColor(this, R.color.dialog_button_text));
         filterDialog.getButton(AlertDialog.BUTTON_POSITIVE).setTextColor(ContextCompat.getColor(this, R.color.dialog_button_text));
 
-        appManager.loadAllApps(allApps -> {
-            Set<String> hiddenApps = appManager.getHiddenApps();
+        appManager.loadAllApps(com.northmendo.Appzuku.db.AppPolicy.FLAG_HIDDEN, (allApps, hiddenApps) -> {
             FilterAppsAdapter filterAdapter = new FilterAppsAdapter(this, allApps, hiddenApps);
             listView.setAdapter(filterAdapter);
             listView.setOnItemClickListener(null);
@@ -1062,8 +1066,7 @@ public class SettingsActivity extends BaseActivity {
         restrictionDialog.getButton(AlertDialog.BUTTON_NEGATIVE).setTextColor(ContextCompat.getColor(this, R.color.dialog_button_text));
         restrictionDialog.getButton(AlertDialog.BUTTON_POSITIVE).setTextColor(ContextCompat.getColor(this, R.color.dialog_button_text));
 
-        appManager.loadBackgroundRestrictionApps(allApps -> {
-            Set<String> desiredRestrictedApps = appManager.getBackgroundRestrictedApps();
+        appManager.loadBackgroundRestrictionApps((allApps, desiredRestrictedApps) -> {
             FilterAppsAdapter filterAdapter = new FilterAppsAdapter(this, allApps, desiredRestrictedApps);
             listView.setAdapter(filterAdapter);
             listView.setOnItemClickListener(null);
@@ -1168,6 +1171,7 @@ public class SettingsActivity extends BaseActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        ShellManager.getInstance(this).removeCapabilityListener(preciseMemoryAvailability);
         executor.shutdownNow();
         binding = null;
     }
@@ -1319,6 +1323,56 @@ public class SettingsActivity extends BaseActivity {
         });
     }
 
+    private void showShellDiagnosticsDialog() {
+        SettingsListContent content = createSettingsListContent("No shell backend information.", false);
+        SettingsSurfaceAdapter adapter = new SettingsSurfaceAdapter();
+        content.listView.setAdapter(adapter);
+        content.listView.setEmptyView(content.emptyView);
+
+        AlertDialog dialog = createSettingsSurfaceDialog(
+                "Shell Diagnostics",
+                "Health of the Root and Shizuku backends. A backend that keeps failing is skipped and retried later.",
+                content.rootView);
+        dialog.setButton(AlertDialog.BUTTON_NEGATIVE, "Close", (d, w) -> d.dismiss());
+        dialog.setButton(AlertDialog.BUTTON_NEUTRAL, "Refresh", (d, w) -> {
+        });
+        dialog.show();
+        styleDialogButtons(dialog);
+
+        ShellManager shellManager = ShellManager.getInstance(this);
+        Runnable reload = () -> executor.execute(() -> {
+            List<SettingsSurfaceRow> rows = new ArrayList<>();
+            rows.add(buildBackendHealthRow(shellManager.getRootHealth()));
+            rows.add(buildBackendHealthRow(shellManager.getShizukuHealth()));
+            long probeLatencyMs = shellManager.getProbeLatencyMs();
+            String summary = "Active backend: " + shellManager.getCapability()
+                    + (probeLatencyMs >= 0 ? " | Root probe: " + probeLatencyMs + " ms" : "");
+            handler.post(() -> {
+                adapter.setItems(rows);
+                content.summaryText.setText(summary);
+                content.loading.setVisibility(View.GONE);
+                content.listView.setVisibility(View.VISIBLE);
+            });
+        });
+        reload.run();
+
+        dialog.getButton(AlertDialog.BUTTON_NEUTRAL).setOnClickListener(v -> reload.run());
+    }
+
+    private SettingsSurfaceRow buildBackendHealthRow(BackendHealth health) {
+        long latencyMs = health.getLatencyEwmaMs();
+        return new SettingsSurfaceRow(
+                health.getName().substring(0, 1),
+                health.getName(),
+                "Consecutive failures: " + health.getConsecutiveFailures(),
+                String.format(Locale.US, "Succeeded: %d | Failed: %d | Avg latency: %s",
+                        health.getTotalSuccesses(),
+                        health.getTotalFailures(),
+                        latencyMs >= 0 ? latencyMs + " ms" : "-"),
+                humanizeLogOutcome(health.getState().name()),
+                null);
+    }
+
     private AlertDialog createSettingsSurfaceDialog(String title, String subtitle, View contentView) {
         View dialogView = getLayoutInflater().inflate(R.layout.dialog_settings_surface, null);
         TextView subtitleView = dialogView.findViewById(R.id.dialog_surface_subtitle);
@@ -1,24 +1,25 @@
 package com.northmendo.Appzuku;
 
 import android.content.ComponentName;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
 import android.os.Build;
 import android.service.quicksettings.Tile;
 import android.service.quicksettings.TileService;
 import android.graphics.drawable.Icon;
 import android.os.Handler;
 import android.os.Looper;
+import android.util.Log;
 import android.widget.Toast;
+
+import java.io.IOException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 // Quick Settings tile to kill the current foreground application
 public class ShappkyQuickTile extends TileService {
+    private static final String TAG = "ShappkyQuickTile";
 
     private ShellManager shellManager;
     private final Handler handler = new Handler(Looper.getMainLooper());
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final ExecutorService executor = AppExecutors.newSerialExecutor(AppExecutors.Lane.INTERACTIVE);
 
     @Override
     public void onTileAdded() {
@@ -54,7 +55,7 @@ public class ShappkyQuickTile extends TileService {
     public void onClick() {
         super.onClick();
         if (shellManager == null) {
-            shellManager = new ShellManager(this, handler, executor);
+            shellManager = ShellManager.getInstance(this);
         }
 
         // Check permission
@@ -67,11 +68,7 @@ public class ShappkyQuickTile extends TileService {
             String packageName = null;
 
             // Primary: Use dumpsys to get resumed activity (works even when quick settings is open)
-            String dumpOutput = shellManager.runShellCommandAndGetFullOutput(
-                    "dumpsys activity activities | grep -E 'mResumedActivity|topResumedActivity'");
-            if (dumpOutput != null && !dumpOutput.isEmpty()) {
-                packageName = extractPackageFromActivityDump(dumpOutput);
-            }
+            packageName = findResumedPackage();
 
             // Fallback: Use mCurrentFocus from window manager
             if (packageName == null) {
@@ -104,6 +101,7 @@ public class ShappkyQuickTile extends TileService {
                 final String killedPackage = packageName;
                 String cmd = "am force-stop " + killedPackage;
                 shellManager.runShellCommand(cmd, () -> {
+                    ShellQueryCache.getInstance(this).invalidate();
                     logKilledPackage(killedPackage);
                     handler.post(() -> {
                         Toast.makeText(this, "Killed: " + killedPackage, Toast.LENGTH_SHORT).show();
@@ -124,6 +122,27 @@ public class ShappkyQuickTile extends TileService {
         });
     }
     
+    /**
+     * Stream the activity dump and stop at the first resumed activity line, so
+     * the rest of the (often multi-megabyte) dump is never read.
+     */
+    private String findResumedPackage() {
+        try (ShellLineStream stream = shellManager.openLineStream("dumpsys activity activities")) {
+            String line;
+            while ((line = stream.readLine()) != null) {
+                if (line.contains("mResumedActivity") || line.contains("topResumedActivity")) {
+                    String packageName = extractPackageFromActivityDump(line);
+                    if (packageName != null) {
+                        return packageName;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read activity dump", e);
+        }
+        return null;
+    }
+
     /**
      * Extract package name from dumpsys activity output.
      * Looks for patterns like: "mResumedActivity: ActivityRecord{... com.pkg.name/.Activity ...}"
@@ -180,7 +199,7 @@ public class ShappkyQuickTile extends TileService {
                 com.northmendo.Appzuku.db.AppStatsDao appStatsDao =
                         com.northmendo.Appzuku.db.AppDatabase.getInstance(getApplicationContext()).appStatsDao();
                 com.northmendo.Appzuku.db.AppStats stats = appStatsDao.getStats(packageName);
-                String appName = resolveInstalledAppName(packageName);
+                String appName = PackageMetadataCache.getInstance(this).getLabel(packageName);
 
                 if (stats == null) {
                     stats = new com.northmendo.Appzuku.db.AppStats(packageName);
@@ -198,19 +217,6 @@ public class ShappkyQuickTile extends TileService {
         });
     }
 
-    private String resolveInstalledAppName(String packageName) {
-        try {
-            PackageManager pm = getPackageManager();
-            ApplicationInfo appInfo = pm.getApplicationInfo(packageName, 0);
-            CharSequence label = pm.getApplicationLabel(appInfo);
-            if (label != null) {
-                return label.toString();
-            }
-        } catch (PackageManager.NameNotFoundException ignored) {
-        }
-        return null;
-    }
-
     @Override
     public void onDestroy() {
         super.onDestroy();
@@ -16,7 +16,6 @@ import androidx.core.app.NotificationCompat;
 
 import java.io.IOException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import android.content.IntentFilter;
 
@@ -28,7 +27,7 @@ import static com.northmendo.Appzuku.AppConstants.*;
  */
 public class ShappkyService extends Service {
 
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final ExecutorService executor = AppExecutors.newSerialExecutor();
     private final Handler handler = new Handler(Looper.getMainLooper());
     private static boolean isRunning = false;
 
@@ -43,8 +42,9 @@ public class ShappkyService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
-        shellManager = new ShellManager(this, handler, executor);
+        shellManager = ShellManager.getInstance(this);
         appManager = new BackgroundAppManager(this, handler, executor, shellManager);
+        ProcessEventMonitor.getInstance(this).acquire();
         createNotificationChannel();
 
         Notification notification = new NotificationCompat.Builder(this, CHANNEL_ID_SERVICE)
@@ -141,6 +141,7 @@ public class ShappkyService extends Service {
             unregisterReceiver(screenOffReceiver);
         }
         handler.removeCallbacksAndMessages(null);
+        ProcessEventMonitor.getInstance(this).release();
         super.onDestroy();
         executor.shutdownNow();
     }
@@ -0,0 +1,136 @@
+package com.northmendo.Appzuku;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Pull-style reader over the stdout of one shell process, returned by
+ * {@link ShellManager#openLineStream(String)}. Stderr is drained in the
+ * background into a small bounded buffer so the process never blocks on it.
+ * Always close the stream, typically with try-with-resources; closing before
+ * the end kills the process, and so does the watchdog if the stream is still
+ * open past its deadline.
+ */
+public final class ShellLineStream implements Closeable {
+    private static final String TAG = "ShellLineStream";
+    private static final ShellManager.OutputLimit STDERR_LIMIT = ShellManager.OutputLimit.tail(16 * 1024);
+
+    private final Process process;
+    private final BufferedReader reader;
+    private final BoundedOutput stderr = new BoundedOutput(STDERR_LIMIT);
+    private final ShellWatchdog.Watch watch;
+    private boolean finished;
+    private boolean closed;
+
+    ShellLineStream(Process process, ShellWatchdog.Watch watch) {
+        this.process = process;
+        this.watch = watch;
+        this.reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        BufferedReader errorReader = new BufferedReader(new InputStreamReader(process.getErrorStream()));
+        Thread drain = new Thread(() -> {
+            try {
+                String line;
+                while ((line = errorReader.readLine()) != null) {
+                    stderr.append(line);
+                }
+            } catch (IOException ignored) {
+                // Process was killed or closed
+            }
+        }, "ShellLineStream-stderr");
+        drain.setDaemon(true);
+        drain.start();
+        watch.arm(ShellWatchdog.processKiller(process));
+    }
+
+    /**
+     * Next stdout line, or null once the process has closed its output, was
+     * killed for running past its deadline (see {@link #timedOut()}) or was
+     * cancelled.
+     */
+    public String readLine() throws IOException {
+        if (closed || finished) {
+            return null;
+        }
+        String line;
+        try {
+            line = reader.readLine();
+        } catch (IOException e) {
+            if (watch.tripped()) {
+                finished = true;
+                return null;
+            }
+            throw e;
+        }
+        if (line == null) {
+            finished = true;
+        }
+        return line;
+    }
+
+    /**
+     * Raw stdout, for parsers that work on bytes rather than lines. Use either
+     * this or {@link #readLine()}, not both; the reader may have buffered
+     * bytes ahead of the last line it returned.
+     */
+    public InputStream getInputStream() {
+        return process.getInputStream();
+    }
+
+    public boolean timedOut() {
+        return watch.timedOut();
+    }
+
+    /**
+     * Kill the process from any thread. Unlike {@link #close()} this does not
+     * wait for the reader, so a thread blocked in {@link #readLine()} simply
+     * sees the end of the stream and closes it itself.
+     */
+    public void cancel() {
+        watch.cancel();
+    }
+
+    /**
+     * Exit code of the process once {@link #readLine()} has returned null, or
+     * -1 if the stream was closed early, cancelled or timed out.
+     */
+    public int exitCode() {
+        if (!finished || watch.tripped()) {
+            return -1;
+        }
+        try {
+            return process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+
+    /**
+     * The last few kilobytes the process wrote to stderr.
+     */
+    public String stderr() {
+        return stderr.text().trim();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        watch.disarm();
+        if (!finished) {
+            Log.d(TAG, "Stream closed early, killing process");
+        }
+        process.destroy();
+        try {
+            reader.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
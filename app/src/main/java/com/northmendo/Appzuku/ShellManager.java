@@ -1,16 +1,24 @@
 package com.northmendo.Appzuku;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
@@ -20,108 +28,263 @@ import rikka.shizuku.ShizukuRemoteProcess;
 /**
  * Manages shell command execution via Root or Shizuku.
  * Prioritizes Root access over Shizuku when both are available.
+ * One instance is shared by the whole process (see {@link #getInstance}), so
+ * root is probed once and every component sees the same capability state.
+ * The last probe result is persisted, so a cold start can use it right away
+ * while the probe revalidates it in the background.
+ * Each backend has a circuit breaker ({@link BackendHealth}): while root keeps
+ * failing at the shell level, commands go straight to Shizuku, and root is
+ * probed again periodically.
+ * <p>
+ * Commands share one long-lived shell per backend, each in its own subshell
+ * (see {@link CommandFraming}). A command may change directory or exit, but
+ * must be complete shell syntax: no unclosed quotes or here-documents.
  */
 public class ShellManager {
     private static final String TAG = "ShellManager";
+    private static final OutputLimit STREAMING_LIMIT = OutputLimit.tail(16 * 1024);
 
-    private final Handler handler;
+    /**
+     * Shell backend that commands will use.
+     */
+    public enum Capability {
+        ROOT, SHIZUKU, NONE
+    }
+
+    public interface CapabilityListener {
+        void onCapabilityChanged(Capability capability);
+    }
+
+    private static ShellManager instance;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
     private final ExecutorService executor;
+    private final SharedPreferences prefs;
 
-    // Root access state - use AtomicBoolean for thread safety
+    // Root access state, null until the probe completes
     private volatile Boolean hasRoot = null;
-    private final AtomicBoolean rootCheckInProgress = new AtomicBoolean(false);
+    private final CountDownLatch rootCheckDone = new CountDownLatch(1);
+    // Root access according to the persisted cache, null if missing, stale or invalidated
+    private volatile Boolean cachedRoot;
+    private volatile long probeLatencyMs = -1;
+
+    private final BackendHealth rootHealth = new BackendHealth("Root");
+    private final BackendHealth shizukuHealth = new BackendHealth("Shizuku");
+
+    private final List<CapabilityListener> capabilityListeners = new CopyOnWriteArrayList<>();
+    private Capability lastCapability;
 
-    @SuppressWarnings("deprecation")
-    private Shizuku.OnRequestPermissionResultListener shizukuPermissionListener;
+    private ShellManager(Context context) {
+        this.executor = AppExecutors.shared();
+        this.prefs = context.getSharedPreferences(PreferenceKeys.PREFERENCES_NAME, Context.MODE_PRIVATE);
+        loadCachedCapability();
 
-    public ShellManager(Context context, Handler handler, ExecutorService executor) {
-        this.handler = handler;
-        this.executor = executor;
+        Shizuku.addBinderReceivedListenerSticky(this::notifyCapabilityChanged);
+        Shizuku.addBinderDeadListener(this::notifyCapabilityChanged);
+        Shizuku.addRequestPermissionResultListener((requestCode, grantResult) -> notifyCapabilityChanged());
 
         // Start root check in background immediately
         initializeRootCheck();
     }
 
+    public static synchronized ShellManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new ShellManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+
     /**
      * Initialize root access check in background.
-     * This prevents blocking the main thread.
+     * This prevents blocking the main thread. It runs on its own thread rather
+     * than the shared pool, since pool tasks may be waiting for its result.
      */
     private void initializeRootCheck() {
-        if (rootCheckInProgress.compareAndSet(false, true)) {
-            executor.execute(() -> {
-                try {
-                    hasRoot = checkRootAccessBlocking();
-                    Log.d(TAG, "Root access check complete: " + hasRoot);
-                } finally {
-                    rootCheckInProgress.set(false);
-                }
-            });
+        Thread probe = new Thread(() -> {
+            try {
+                long start = System.currentTimeMillis();
+                hasRoot = checkRootAccessBlocking();
+                probeLatencyMs = System.currentTimeMillis() - start;
+                Log.d(TAG, "Root access check complete: " + hasRoot + " in " + probeLatencyMs + " ms");
+                saveCachedCapability();
+            } finally {
+                rootCheckDone.countDown();
+                notifyCapabilityChanged();
+            }
+        }, "RootProbe");
+        probe.setDaemon(true);
+        probe.start();
+    }
+
+    private void loadCachedCapability() {
+        long checkedAt = prefs.getLong(PreferenceKeys.KEY_SHELL_CAPABILITY_CHECKED_AT, 0);
+        long age = System.currentTimeMillis() - checkedAt;
+        if (checkedAt == 0 || age < 0 || age > AppConstants.SHELL_CAPABILITY_CACHE_TTL_MS) {
+            return;
+        }
+        String stored = prefs.getString(PreferenceKeys.KEY_SHELL_CAPABILITY, null);
+        if (stored == null) {
+            return;
         }
+        cachedRoot = Capability.ROOT.name().equals(stored);
+        probeLatencyMs = prefs.getLong(PreferenceKeys.KEY_SHELL_PROBE_LATENCY_MS, -1);
+        Log.d(TAG, "Using cached shell capability " + stored + " (" + age / 1000 + " s old)");
+    }
+
+    private void saveCachedCapability() {
+        prefs.edit()
+                .putString(PreferenceKeys.KEY_SHELL_CAPABILITY, getCapability().name())
+                .putLong(PreferenceKeys.KEY_SHELL_PROBE_LATENCY_MS, probeLatencyMs)
+                .putLong(PreferenceKeys.KEY_SHELL_CAPABILITY_CHECKED_AT, System.currentTimeMillis())
+                .apply();
+    }
+
+    /**
+     * Forget the persisted capability after a backend failed to run a command,
+     * so the next cold start waits for a fresh probe instead of trusting it.
+     */
+    private void invalidateCachedCapability() {
+        if (cachedRoot == null && !prefs.contains(PreferenceKeys.KEY_SHELL_CAPABILITY)) {
+            return;
+        }
+        Log.d(TAG, "Shell backend failed, invalidating cached capability");
+        cachedRoot = null;
+        prefs.edit()
+                .remove(PreferenceKeys.KEY_SHELL_CAPABILITY)
+                .remove(PreferenceKeys.KEY_SHELL_PROBE_LATENCY_MS)
+                .remove(PreferenceKeys.KEY_SHELL_CAPABILITY_CHECKED_AT)
+                .apply();
+    }
+
+    /**
+     * Root access as far as it is known without waiting: the probe result if
+     * it has completed, otherwise the cached result, otherwise null.
+     */
+    private Boolean knownRoot() {
+        Boolean root = hasRoot;
+        return root != null ? root : cachedRoot;
     }
 
     /**
      * Blocking check for root access. Should only be called from background thread.
+     * Starts the shared root shell, so a successful check also warms it up.
      */
     private boolean checkRootAccessBlocking() {
-        Process process = null;
-        DataOutputStream os = null;
         try {
-            process = Runtime.getRuntime().exec("su");
-            os = new DataOutputStream(process.getOutputStream());
-            os.writeBytes("id\n");
-            os.writeBytes("exit\n");
-            os.flush();
-            int exitValue = process.waitFor();
-            return exitValue == 0;
-        } catch (IOException | InterruptedException e) {
+            // Long enough for the user to answer the superuser prompt
+            ShellWatchdog.Watch watch = new ShellWatchdog.Watch(AppConstants.ROOT_GRANT_TIMEOUT_MS);
+            return RootShellSession.getInstance().executeBatch(Collections.singletonList("id"),
+                    OutputLimit.DEFAULT, null, null, watch).get(0).succeeded();
+        } catch (IOException e) {
             Log.d(TAG, "Root not available: " + e.getMessage());
             return false;
-        } finally {
-            try {
-                if (os != null)
-                    os.close();
-                if (process != null)
-                    process.destroy();
-            } catch (IOException ignored) {
-            }
         }
     }
 
     /**
-     * Set the permission listener for Shizuku.
+     * Add a permission listener for Shizuku.
      */
     public void setShizukuPermissionListener(Shizuku.OnRequestPermissionResultListener listener) {
-        this.shizukuPermissionListener = listener;
-        Shizuku.addRequestPermissionResultListener(shizukuPermissionListener);
+        Shizuku.addRequestPermissionResultListener(listener);
     }
 
     /**
-     * Remove the Shizuku permission listener.
+     * Remove a Shizuku permission listener added with
+     * {@link #setShizukuPermissionListener}.
      */
-    public void removeShizukuPermissionListener() {
-        if (shizukuPermissionListener != null) {
-            Shizuku.removeRequestPermissionResultListener(shizukuPermissionListener);
+    public void removeShizukuPermissionListener(Shizuku.OnRequestPermissionResultListener listener) {
+        if (listener != null) {
+            Shizuku.removeRequestPermissionResultListener(listener);
         }
     }
 
     /**
-     * Check if the device has root access.
-     * Returns cached result if available, otherwise returns false (check may still
-     * be in progress).
-     * For blocking check, use from background thread only.
+     * Check if the device has root access, without waiting.
+     * Returns the probe result if it has completed, or else the cached result
+     * of an earlier probe, or else false. Callers that must know use
+     * {@link #awaitCapability(long)}.
      */
     public boolean hasRootAccess() {
-        if (hasRoot == null) {
-            // If called before check completes, do blocking check on current thread
-            // This should only happen if called from background thread
-            if (Looper.myLooper() != Looper.getMainLooper()) {
-                hasRoot = checkRootAccessBlocking();
-            } else {
-                // On main thread, return false and let Shizuku be used
-                return false;
-            }
+        return Boolean.TRUE.equals(knownRoot());
+    }
+
+    /**
+     * The backend commands would use right now. Until the root probe completes
+     * this is based on the cached result, or reports Shizuku or NONE if there
+     * is none, and may change once it does.
+     */
+    public Capability getCapability() {
+        if (Boolean.TRUE.equals(knownRoot())) {
+            return Capability.ROOT;
+        }
+        return hasShizukuPermission() ? Capability.SHIZUKU : Capability.NONE;
+    }
+
+    /**
+     * Wait up to {@code timeoutMs} for the root probe, then return the
+     * capability. Returns right away if the probe has already completed or a
+     * cached result is available.
+     * This method is blocking and should only be called from a background thread.
+     */
+    public Capability awaitCapability(long timeoutMs) {
+        if (knownRoot() == null) {
+            awaitRootCheck(timeoutMs);
         }
-        return hasRoot;
+        return getCapability();
+    }
+
+    /**
+     * How long the last root probe took, in milliseconds, or -1 if unknown.
+     */
+    public long getProbeLatencyMs() {
+        return probeLatencyMs;
+    }
+
+    /**
+     * Listen for capability changes: the root probe completing and Shizuku
+     * starting, stopping or being granted. The listener is called on the main
+     * thread, once right away with the current state and then on every change.
+     */
+    public void addCapabilityListener(CapabilityListener listener) {
+        capabilityListeners.add(listener);
+        executor.execute(() -> {
+            Capability capability = getCapability();
+            handler.post(() -> {
+                if (capabilityListeners.contains(listener)) {
+                    listener.onCapabilityChanged(capability);
+                }
+            });
+        });
+    }
+
+    public void removeCapabilityListener(CapabilityListener listener) {
+        capabilityListeners.remove(listener);
+    }
+
+    private void awaitRootCheck(long timeoutMs) {
+        try {
+            rootCheckDone.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void notifyCapabilityChanged() {
+        executor.execute(() -> {
+            Capability capability = getCapability();
+            synchronized (capabilityListeners) {
+                if (capability == lastCapability) {
+                    return;
+                }
+                lastCapability = capability;
+            }
+            Log.d(TAG, "Shell capability: " + capability);
+            handler.post(() -> {
+                for (CapabilityListener listener : capabilityListeners) {
+                    listener.onCapabilityChanged(capability);
+                }
+            });
+        });
     }
 
     /**
@@ -142,7 +305,7 @@ public class ShellManager {
      */
     public void checkShellPermissions() {
         // If root access is available, don't request Shizuku
-        if (hasRoot != null && hasRoot) {
+        if (Boolean.TRUE.equals(knownRoot())) {
             Log.d(TAG, "Root access available, skipping Shizuku permission request");
             return;
         }
@@ -168,27 +331,35 @@ public class ShellManager {
         if (hasShizukuPermission()) {
             return true;
         }
-        // Check cached root result (null means check in progress)
-        return hasRoot != null && hasRoot;
+        // Check root result, probed or cached (null means check in progress)
+        return Boolean.TRUE.equals(knownRoot());
     }
 
     /**
      * Run a shell command prioritizing Root, then Shizuku.
      * Executes on background thread and posts callback to main handler.
+     * Like every command here it must parse on its own; see the class notes.
      */
-    public void runShellCommand(String command, Runnable onSuccess) {
-        runShellCommand(command, onSuccess, null);
+    public CommandHandle runShellCommand(String command, Runnable onSuccess) {
+        return runShellCommand(command, onSuccess, null);
     }
 
     /**
      * Run a shell command with separate success/failure callbacks.
      * Executes on background thread and posts callbacks to main handler.
+     * These fire-and-forget commands are user actions, so they run on the
+     * interactive lane and are not queued behind background work.
+     * The returned handle cancels the command; a cancelled command runs
+     * neither callback. A command that times out counts as a failure.
      */
-    public void runShellCommand(String command, Runnable onSuccess, Runnable onFailure) {
-        executor.execute(() -> {
-            boolean succeeded = runShellCommandBlocking(command);
-
-            if (succeeded) {
+    public CommandHandle runShellCommand(String command, Runnable onSuccess, Runnable onFailure) {
+        CommandHandle handle = new CommandHandle(new ShellWatchdog.Watch(AppConstants.SHELL_COMMAND_TIMEOUT_MS));
+        handle.future = AppExecutors.interactive().submit(() -> {
+            ShellResult result = runShellCommandForResult(command, OutputLimit.DEFAULT, handle.watch);
+            if (handle.isCancelled()) {
+                return;
+            }
+            if (result.succeeded()) {
                 if (onSuccess != null) {
                     handler.post(onSuccess);
                 }
@@ -196,6 +367,7 @@ public class ShellManager {
                 handler.post(onFailure);
             }
         });
+        return handle;
     }
 
     /**
@@ -207,15 +379,38 @@ public class ShellManager {
     }
 
     public ShellResult runShellCommandForResult(String command) {
+        return runShellCommandForResult(command, OutputLimit.DEFAULT);
+    }
+
+    /**
+     * Run a shell command and capture at most {@code limit} of its stdout and
+     * stderr. Output past the limit is dropped and flagged with
+     * {@link ShellResult#truncated()}.
+     */
+    public ShellResult runShellCommandForResult(String command, OutputLimit limit) {
+        return runShellCommandForResult(command, limit, AppConstants.SHELL_COMMAND_TIMEOUT_MS);
+    }
+
+    /**
+     * Run a shell command with its own deadline. If it has not finished after
+     * {@code timeoutMs} its process is killed and a result with
+     * {@link ShellResult#timedOut()} set is returned.
+     */
+    public ShellResult runShellCommandForResult(String command, OutputLimit limit, long timeoutMs) {
+        return runShellCommandForResult(command, limit, new ShellWatchdog.Watch(timeoutMs));
+    }
+
+    private ShellResult runShellCommandForResult(String command, OutputLimit limit, ShellWatchdog.Watch watch) {
         ShellResult rootResult = null;
-        if (hasRootAccess()) {
-            rootResult = executeRootCommandForResult(command);
-            if (rootResult.succeeded()) {
+        if (shouldTryRoot()) {
+            rootResult = executeRootCommandForResult(command, limit, null, watch);
+            // A hung command would hang again through Shizuku, so do not retry it
+            if (rootResult.succeeded() || watch.tripped()) {
                 return rootResult;
             }
         }
-        if (hasShizukuPermission()) {
-            ShellResult shizukuResult = executeShizukuCommandForResult(command);
+        if (shouldTryShizuku(rootResult != null)) {
+            ShellResult shizukuResult = executeShizukuCommandForResult(command, limit, null, watch);
             if (shizukuResult.succeeded() || rootResult == null) {
                 return shizukuResult;
             }
@@ -224,300 +419,458 @@ public class ShellManager {
     }
 
     /**
-     * Run a shell command and process its output line by line.
+     * Run several commands in one round trip and return one result per command,
+     * in order. Each result carries its own exit code, stdout and stderr, so a
+     * failure of one command does not hide the others. Commands that fail as
+     * root are retried through Shizuku when it is available, like
+     * {@link #runShellCommandForResult(String)} does for a single command.
+     * Every command gets {@link AppConstants#SHELL_COMMAND_TIMEOUT_MS}; once one
+     * times out, it and the commands after it report {@link ShellResult#timedOut()}.
+     * This method is blocking and should only be called from a background thread.
+     */
+    public List<ShellResult> executeBatch(List<String> commands) {
+        if (commands.isEmpty()) {
+            return new ArrayList<>();
+        }
+        boolean rootTried = shouldTryRoot();
+        List<ShellResult> results = rootTried ? executeRootBatch(commands) : null;
+        if (results == null) {
+            return shouldTryShizuku(rootTried) ? executeShizukuBatch(commands)
+                    : failedBatch(commands.size(), "No Root or Shizuku permission available");
+        }
+        List<Integer> failedIndexes = new ArrayList<>();
+        List<String> failedCommands = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            if (!results.get(i).succeeded() && !results.get(i).timedOut()) {
+                failedIndexes.add(i);
+                failedCommands.add(commands.get(i));
+            }
+        }
+        if (!failedCommands.isEmpty() && shouldTryShizuku(true)) {
+            List<ShellResult> retried = executeShizukuBatch(failedCommands);
+            for (int i = 0; i < failedIndexes.size(); i++) {
+                if (retried.get(i).succeeded()) {
+                    results.set(failedIndexes.get(i), retried.get(i));
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Run a shell command and process its output line by line. A root failure
+     * is retried through Shizuku only if no line has reached
+     * {@code outputProcessor} yet, so lines are never delivered twice.
      */
     public void runShellCommandWithOutput(String command, Consumer<String> outputProcessor) {
         executor.execute(() -> {
+            AtomicBoolean delivered = new AtomicBoolean();
+            Consumer<String> lineConsumer = line -> {
+                delivered.set(true);
+                handler.post(() -> outputProcessor.accept(line));
+            };
+            ShellWatchdog.Watch watch = new ShellWatchdog.Watch(AppConstants.SHELL_COMMAND_TIMEOUT_MS);
             boolean executed = false;
-            if (hasRootAccess()) {
-                executed = executeRootCommand(command, outputProcessor);
+            boolean rootTried = shouldTryRoot();
+            if (rootTried) {
+                executed = executeRootCommandForResult(command, OutputLimit.NONE, lineConsumer, watch).succeeded();
             }
-            if (!executed && hasShizukuPermission()) {
-                executed = executeShizukuCommandWithOutput(command, outputProcessor);
+            if (!executed && !delivered.get() && !watch.tripped() && shouldTryShizuku(rootTried)) {
+                executeShizukuCommandForResult(command, OutputLimit.NONE, lineConsumer, watch);
             }
         });
     }
 
     /**
-     * Run a shell command and return the full output.
+     * Run a shell command and return the full output, capped at
+     * {@link OutputLimit#DEFAULT}. Returns null if the command could not be run
+     * or timed out.
      * This method is blocking and should be called from a background thread.
      */
     public String runShellCommandAndGetFullOutput(String command) {
-        if (hasRootAccess()) {
-            return executeRootCommandAndGetFullOutput(command);
-        } else if (hasShizukuPermission()) {
-            return executeShizukuCommandAndGetFullOutput(command);
+        ShellResult result;
+        if (shouldTryRoot()) {
+            result = executeRootCommandForResult(command, OutputLimit.DEFAULT, null, defaultWatch());
+        } else if (shouldTryShizuku(false)) {
+            result = executeShizukuCommandForResult(command, OutputLimit.DEFAULT, null, defaultWatch());
+        } else {
+            return null;
         }
-        return null;
+        // Exit code -1 means the shell itself failed rather than the command
+        return result.timedOut() || (result.exitCode() == -1 && !result.succeeded()) ? null : result.output();
     }
 
-    // --- Private helper methods ---
+    /**
+     * Run a shell command and hand each stdout line to {@code lineConsumer} on
+     * the calling thread as it is read, without keeping the output in memory.
+     * Only the tail of stdout and stderr is retained in the returned result,
+     * for diagnostics. Unlike {@link #runShellCommandForResult(String)} there
+     * is no Shizuku retry after a root failure, so lines are never delivered
+     * twice. This method is blocking and should be called from a background
+     * thread.
+     */
+    public ShellResult runShellCommandForEachLine(String command, Consumer<String> lineConsumer) {
+        if (shouldTryRoot()) {
+            return executeRootCommandForResult(command, STREAMING_LIMIT, lineConsumer, null, defaultWatch());
+        }
+        if (shouldTryShizuku(false)) {
+            return executeShizukuCommandForResult(command, STREAMING_LIMIT, lineConsumer, null, defaultWatch());
+        }
+        return new ShellResult(false, -1, "No Root or Shizuku permission available");
+    }
 
-    private boolean executeRootCommand(String command, Consumer<String> outputProcessor) {
-        Process process = null;
-        DataOutputStream os = null;
-        try {
-            process = Runtime.getRuntime().exec("su");
-            os = new DataOutputStream(process.getOutputStream());
-            os.writeBytes(command + "\n");
-            os.writeBytes("exit\n");
-            os.flush();
-
-            if (outputProcessor != null) {
-                try (BufferedReader readerInput = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                        BufferedReader errorReader = new BufferedReader(
-                                new InputStreamReader(process.getErrorStream()))) {
-                    String line;
-                    while ((line = readerInput.readLine()) != null) {
-                        final String finalLine = line;
-                        handler.post(() -> outputProcessor.accept(finalLine));
-                    }
-                    while ((line = errorReader.readLine()) != null) {
-                        final String finalLine = line;
-                        handler.post(() -> outputProcessor.accept("ERROR: " + finalLine));
-                    }
-                }
-            }
-            int exitCode = process.waitFor();
-            if (exitCode != 0) {
-                Log.w(TAG, "Root command exited with code " + exitCode + ": " + command);
-            }
-            return exitCode == 0;
-        } catch (IOException | InterruptedException e) {
-            if (e instanceof InterruptedException) {
-                Thread.currentThread().interrupt();
+    /**
+     * Start a command in its own process and read its stdout one line at a
+     * time. Parsers can stop as soon as they have what they need; closing the
+     * stream kills the process, so the rest of the output is never produced.
+     * The process is also killed if the stream is still open after
+     * {@link AppConstants#SHELL_COMMAND_TIMEOUT_MS}.
+     * Under root every stream forks a new {@code su}, so one-shot dumps on busy
+     * paths should use {@link #runShellCommandForEachLine} on the persistent
+     * session instead; this is for long-lived streams such as logcat.
+     * This method is blocking and should be called from a background thread.
+     *
+     * @throws IOException if no shell backend is available or the process could
+     *                     not be started
+     */
+    public ShellLineStream openLineStream(String command) throws IOException {
+        return openLineStream(command, AppConstants.SHELL_COMMAND_TIMEOUT_MS);
+    }
+
+    /**
+     * Like {@link #openLineStream(String)} with a deadline of {@code timeoutMs},
+     * or none if it is 0. Without a deadline the process runs until the stream
+     * is closed, which suits commands that follow a log.
+     */
+    public ShellLineStream openLineStream(String command, long timeoutMs) throws IOException {
+        if (shouldTryRoot()) {
+            Process process;
+            try {
+                process = Runtime.getRuntime().exec(new String[] { "su", "-c", command });
+            } catch (IOException e) {
+                rootHealth.recordFailure(-1);
+                throw e;
             }
-            Log.e(TAG, "Root command failed", e);
-            return false;
-        } finally {
+            rootHealth.recordSuccess(-1);
+            return new ShellLineStream(process, new ShellWatchdog.Watch(timeoutMs));
+        }
+        if (shouldTryShizuku(false)) {
+            Process process;
             try {
-                if (os != null)
-                    os.close();
-                if (process != null)
-                    process.destroy();
-            } catch (IOException ignored) {
+                process = Shizuku.newProcess(new String[] { "sh", "-c", command }, null, "/");
+            } catch (RuntimeException e) {
+                shizukuHealth.recordFailure(-1);
+                throw new IOException("Unable to start Shizuku process", e);
             }
+            shizukuHealth.recordSuccess(-1);
+            return new ShellLineStream(process, new ShellWatchdog.Watch(timeoutMs));
         }
+        throw new IOException("No Root or Shizuku permission available");
     }
 
-    private boolean executeShizukuCommand(String command) {
-        ShizukuRemoteProcess remote = null;
-        try {
-            remote = Shizuku.newProcess(new String[] { "sh", "-c", command }, null, "/");
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(remote.getInputStream()))) {
-                while (reader.readLine() != null) {
-                    // Consume output
-                }
-            }
+    /**
+     * Circuit breaker state of the root backend, for diagnostics.
+     */
+    public BackendHealth getRootHealth() {
+        return rootHealth;
+    }
 
-            int exitCode = remote.waitFor();
-            if (exitCode != 0) {
-                Log.w(TAG, "Shizuku command exited with code " + exitCode + ": " + command);
-            }
-            return exitCode == 0;
-        } catch (Exception e) {
-            if (e instanceof InterruptedException) {
-                Thread.currentThread().interrupt();
-            }
-            Log.e(TAG, "Shizuku command failed", e);
-            return false;
-        } finally {
-            if (remote != null) {
-                remote.destroy();
-            }
+    /**
+     * Circuit breaker state of the Shizuku backend, for diagnostics.
+     */
+    public BackendHealth getShizukuHealth() {
+        return shizukuHealth;
+    }
+
+    // --- Private helper methods ---
+
+    /**
+     * Root is used when it is available and its circuit is closed, or when it
+     * is the only backend left. Before the first probe completes, background
+     * work with no other backend waits for it; the main thread and the
+     * interactive lane do not, and their commands fail instead.
+     */
+    private boolean shouldTryRoot() {
+        boolean root = hasRootAccess();
+        if (!root && knownRoot() == null && !hasShizukuPermission()
+                && Looper.myLooper() != Looper.getMainLooper() && !AppExecutors.isInteractiveThread()) {
+            root = awaitCapability(AppConstants.ROOT_GRANT_TIMEOUT_MS) == Capability.ROOT;
         }
+        return root && (rootHealth.allowRequest() || !hasShizukuPermission());
     }
 
-    private ShellResult executeRootCommandForResult(String command) {
-        Process process = null;
-        DataOutputStream os = null;
-        StringBuilder output = new StringBuilder();
-        try {
-            process = Runtime.getRuntime().exec("su");
-            os = new DataOutputStream(process.getOutputStream());
-            os.writeBytes(command + "\n");
-            os.writeBytes("exit\n");
-            os.flush();
-
-            try (BufferedReader readerInput = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                    BufferedReader errorReader = new BufferedReader(new InputStreamReader(process.getErrorStream()))) {
-                String line;
-                while ((line = readerInput.readLine()) != null) {
-                    output.append(line).append("\n");
-                }
-                while ((line = errorReader.readLine()) != null) {
-                    output.append("ERROR: ").append(line).append("\n");
-                }
-            }
+    /**
+     * Shizuku as the primary backend is used whenever it is available; as a
+     * fallback after root, only while its circuit allows it.
+     */
+    private boolean shouldTryShizuku(boolean afterRoot) {
+        return hasShizukuPermission() && (shizukuHealth.allowRequest() || !afterRoot);
+    }
 
-            int exitCode = process.waitFor();
-            if (exitCode != 0) {
-                Log.w(TAG, "Root command exited with code " + exitCode + ": " + command);
-            }
-            return new ShellResult(exitCode == 0, exitCode, output.toString());
-        } catch (IOException | InterruptedException e) {
-            if (e instanceof InterruptedException) {
-                Thread.currentThread().interrupt();
+    /**
+     * Report a finished command to the backend's circuit breaker. A non-zero
+     * exit code is the command's own failure; only a shell that could not run
+     * it (exit code -1) or a timeout counts against the backend.
+     */
+    private static void recordOutcome(BackendHealth health, List<ShellResult> results, ShellWatchdog.Watch watch,
+            long startedAt) {
+        if (watch.cancelled()) {
+            health.recordCancelled();
+            return;
+        }
+        long latencyMs = (SystemClock.elapsedRealtime() - startedAt) / Math.max(1, results.size());
+        for (ShellResult result : results) {
+            if (result.timedOut() || (result.exitCode() == -1 && !result.succeeded())) {
+                health.recordFailure(latencyMs);
+                return;
             }
+        }
+        health.recordSuccess(latencyMs);
+    }
+
+    private static ShellWatchdog.Watch defaultWatch() {
+        return new ShellWatchdog.Watch(AppConstants.SHELL_COMMAND_TIMEOUT_MS);
+    }
+
+    private ShellResult executeRootCommandForResult(String command, OutputLimit limit, Consumer<String> lineConsumer,
+            ShellWatchdog.Watch watch) {
+        return executeRootCommandForResult(command, limit, lineConsumer, lineConsumer, watch);
+    }
+
+    private ShellResult executeRootCommandForResult(String command, OutputLimit limit,
+            Consumer<String> stdoutConsumer, Consumer<String> stderrConsumer, ShellWatchdog.Watch watch) {
+        long startedAt = SystemClock.elapsedRealtime();
+        try {
+            ShellResult result = RootShellSession.forCurrentThread().executeBatch(Collections.singletonList(command),
+                    limit, stdoutConsumer, stderrConsumer, watch).get(0);
+            recordOutcome(rootHealth, Collections.singletonList(result), watch, startedAt);
+            logFailure("Root", command, result);
+            return result;
+        } catch (IOException e) {
             Log.e(TAG, "Root command failed", e);
+            rootHealth.recordFailure(SystemClock.elapsedRealtime() - startedAt);
+            invalidateCachedCapability();
             return new ShellResult(false, -1, e.getMessage());
-        } finally {
-            try {
-                if (os != null)
-                    os.close();
-                if (process != null)
-                    process.destroy();
-            } catch (IOException ignored) {
-            }
         }
     }
 
-    private boolean executeShizukuCommandWithOutput(String command, Consumer<String> outputProcessor) {
-        ShizukuRemoteProcess remote = null;
+    private List<ShellResult> executeRootBatch(List<String> commands) {
+        long startedAt = SystemClock.elapsedRealtime();
+        ShellWatchdog.Watch watch = defaultWatch();
         try {
-            remote = Shizuku.newProcess(new String[] { "sh", "-c", command }, null, "/");
-            try (BufferedReader readerInput = new BufferedReader(new InputStreamReader(remote.getInputStream()));
-                    BufferedReader errorReader = new BufferedReader(new InputStreamReader(remote.getErrorStream()))) {
-                String line;
-                while ((line = readerInput.readLine()) != null) {
-                    final String finalLine = line;
-                    handler.post(() -> outputProcessor.accept(finalLine));
-                }
-                while ((line = errorReader.readLine()) != null) {
-                    final String finalLine = line;
-                    handler.post(() -> outputProcessor.accept("ERROR: " + finalLine));
-                }
-            }
-            int exitCode = remote.waitFor();
-            if (exitCode != 0) {
-                Log.w(TAG, "Shizuku command with output exited with code " + exitCode + ": " + command);
-            }
-            return exitCode == 0;
-        } catch (Exception e) {
-            if (e instanceof InterruptedException) {
-                Thread.currentThread().interrupt();
-            }
-            Log.e(TAG, "Shizuku command with output failed", e);
-            return false;
-        } finally {
-            if (remote != null) {
-                remote.destroy();
-            }
+            List<ShellResult> results = RootShellSession.forCurrentThread()
+                    .executeBatch(commands, OutputLimit.DEFAULT, null, null, watch);
+            recordOutcome(rootHealth, results, watch, startedAt);
+            for (int i = 0; i < results.size(); i++) {
+                logFailure("Root", commands.get(i), results.get(i));
+            }
+            return new ArrayList<>(results);
+        } catch (IOException e) {
+            Log.e(TAG, "Root batch failed", e);
+            rootHealth.recordFailure(SystemClock.elapsedRealtime() - startedAt);
+            invalidateCachedCapability();
+            return null;
         }
     }
 
-    private String executeRootCommandAndGetFullOutput(String command) {
-        Process process = null;
-        DataOutputStream os = null;
-        StringBuilder output = new StringBuilder();
+    private ShellResult executeShizukuCommandForResult(String command, OutputLimit limit,
+            Consumer<String> lineConsumer, ShellWatchdog.Watch watch) {
+        return executeShizukuCommandForResult(command, limit, lineConsumer, lineConsumer, watch);
+    }
+
+    private ShellResult executeShizukuCommandForResult(String command, OutputLimit limit,
+            Consumer<String> stdoutConsumer, Consumer<String> stderrConsumer, ShellWatchdog.Watch watch) {
+        long startedAt = SystemClock.elapsedRealtime();
         try {
-            process = Runtime.getRuntime().exec("su");
-            os = new DataOutputStream(process.getOutputStream());
-            os.writeBytes(command + "\n");
-            os.writeBytes("exit\n");
-            os.flush();
-
-            try (BufferedReader readerInput = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                    BufferedReader errorReader = new BufferedReader(new InputStreamReader(process.getErrorStream()))) {
-                String line;
-                while ((line = readerInput.readLine()) != null) {
-                    output.append(line).append("\n");
-                }
-                while ((line = errorReader.readLine()) != null) {
-                    output.append("ERROR: ").append(line).append("\n");
-                }
-            }
-            process.waitFor();
-            return output.toString();
-        } catch (IOException | InterruptedException e) {
+            ShellResult result = runShizukuBatch(Collections.singletonList(command), limit, stdoutConsumer,
+                    stderrConsumer, watch).get(0);
+            recordOutcome(shizukuHealth, Collections.singletonList(result), watch, startedAt);
+            logFailure("Shizuku", command, result);
+            return result;
+        } catch (Exception e) {
             if (e instanceof InterruptedException) {
                 Thread.currentThread().interrupt();
             }
-            Log.e(TAG, "Root command get output failed", e);
-            return null;
-        } finally {
-            try {
-                if (os != null)
-                    os.close();
-                if (process != null)
-                    process.destroy();
-            } catch (IOException ignored) {
-            }
+            Log.e(TAG, "Shizuku command failed", e);
+            shizukuHealth.recordFailure(SystemClock.elapsedRealtime() - startedAt);
+            invalidateCachedCapability();
+            return new ShellResult(false, -1, e.getMessage());
         }
     }
 
-    private String executeShizukuCommandAndGetFullOutput(String command) {
-        ShizukuRemoteProcess remote = null;
-        StringBuilder output = new StringBuilder();
+    private List<ShellResult> executeShizukuBatch(List<String> commands) {
+        long startedAt = SystemClock.elapsedRealtime();
+        ShellWatchdog.Watch watch = defaultWatch();
         try {
-            remote = Shizuku.newProcess(new String[] { "sh", "-c", command }, null, "/");
-            try (BufferedReader readerInput = new BufferedReader(new InputStreamReader(remote.getInputStream()));
-                    BufferedReader errorReader = new BufferedReader(new InputStreamReader(remote.getErrorStream()))) {
-                String line;
-                while ((line = readerInput.readLine()) != null) {
-                    output.append(line).append("\n");
-                }
-                while ((line = errorReader.readLine()) != null) {
-                    output.append("ERROR: ").append(line).append("\n");
-                }
+            List<ShellResult> results = runShizukuBatch(commands, OutputLimit.DEFAULT, null, null, watch);
+            recordOutcome(shizukuHealth, results, watch, startedAt);
+            for (int i = 0; i < results.size(); i++) {
+                logFailure("Shizuku", commands.get(i), results.get(i));
             }
-            remote.waitFor();
-            return output.toString();
+            return results;
         } catch (Exception e) {
             if (e instanceof InterruptedException) {
                 Thread.currentThread().interrupt();
             }
-            Log.e(TAG, "Shizuku command get output failed", e);
-            return null;
-        } finally {
-            if (remote != null) {
-                remote.destroy();
-            }
+            Log.e(TAG, "Shizuku batch failed", e);
+            shizukuHealth.recordFailure(SystemClock.elapsedRealtime() - startedAt);
+            invalidateCachedCapability();
+            return failedBatch(commands.size(), e.getMessage());
         }
     }
 
-    private ShellResult executeShizukuCommandForResult(String command) {
+    /**
+     * Run framed commands in one Shizuku shell. Stdout is read here while
+     * stderr is drained concurrently, so neither pipe can fill up and stall
+     * the process. The watch kills the remote process if a command hangs.
+     */
+    private List<ShellResult> runShizukuBatch(List<String> commands, OutputLimit limit,
+            Consumer<String> stdoutConsumer, Consumer<String> stderrConsumer, ShellWatchdog.Watch watch)
+            throws IOException, InterruptedException {
+        if (watch.tripped()) {
+            return Collections.nCopies(commands.size(), watch.trippedResult());
+        }
+        CommandFraming.Batch batch = new CommandFraming.Batch(commands);
         ShizukuRemoteProcess remote = null;
-        StringBuilder output = new StringBuilder();
         try {
-            remote = Shizuku.newProcess(new String[] { "sh", "-c", command }, null, "/");
+            remote = Shizuku.newProcess(new String[] { "sh", "-c", batch.script }, null, "/");
+            watch.arm(ShellWatchdog.processKiller(remote));
             try (BufferedReader readerInput = new BufferedReader(new InputStreamReader(remote.getInputStream()));
                     BufferedReader errorReader = new BufferedReader(new InputStreamReader(remote.getErrorStream()))) {
-                String line;
-                while ((line = readerInput.readLine()) != null) {
-                    output.append(line).append("\n");
+                batch.attach(CommandFraming.startPump(errorReader), limit, stderrConsumer);
+                List<ShellResult> results = batch.readResults(readerInput, limit, stdoutConsumer, watch);
+                if (!watch.tripped()) {
+                    remote.waitFor();
                 }
-                while ((line = errorReader.readLine()) != null) {
-                    output.append("ERROR: ").append(line).append("\n");
-                }
-            }
-            int exitCode = remote.waitFor();
-            if (exitCode != 0) {
-                Log.w(TAG, "Shizuku command exited with code " + exitCode + ": " + command);
+                return results;
             }
-            return new ShellResult(exitCode == 0, exitCode, output.toString());
-        } catch (Exception e) {
-            if (e instanceof InterruptedException) {
-                Thread.currentThread().interrupt();
-            }
-            Log.e(TAG, "Shizuku command failed", e);
-            return new ShellResult(false, -1, e.getMessage());
         } finally {
+            watch.disarm();
             if (remote != null) {
                 remote.destroy();
             }
         }
     }
 
+    private static void logFailure(String backend, String command, ShellResult result) {
+        if (result.timedOut()) {
+            Log.w(TAG, backend + " command timed out: " + command);
+        } else if (!result.succeeded()) {
+            Log.w(TAG, backend + " command exited with code " + result.exitCode() + ": " + command);
+        }
+    }
+
+    private static List<ShellResult> failedBatch(int size, String message) {
+        return new ArrayList<>(Collections.nCopies(size, new ShellResult(false, -1, message)));
+    }
+
+    /**
+     * Handle for a command started with {@link #runShellCommand}. Cancelling
+     * before the command starts skips it; cancelling while it runs kills its
+     * process.
+     */
+    public static final class CommandHandle {
+        private final ShellWatchdog.Watch watch;
+        private volatile Future<?> future;
+
+        private CommandHandle(ShellWatchdog.Watch watch) {
+            this.watch = watch;
+        }
+
+        public void cancel() {
+            watch.cancel();
+            Future<?> pending = future;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+        }
+
+        public boolean isCancelled() {
+            return watch.cancelled();
+        }
+    }
+
+    /**
+     * How much output a command may keep in memory. Counted in characters per
+     * stream; head limits keep the first lines, tail limits keep the last ones.
+     */
+    public static final class OutputLimit {
+        public static final OutputLimit DEFAULT = head(AppConstants.SHELL_OUTPUT_MAX_CHARS);
+        public static final OutputLimit NONE = head(Integer.MAX_VALUE);
+
+        private final int maxChars;
+        private final boolean keepTail;
+
+        private OutputLimit(int maxChars, boolean keepTail) {
+            this.maxChars = maxChars;
+            this.keepTail = keepTail;
+        }
+
+        public static OutputLimit head(int maxChars) {
+            return new OutputLimit(maxChars, false);
+        }
+
+        public static OutputLimit tail(int maxChars) {
+            return new OutputLimit(maxChars, true);
+        }
+
+        public int maxChars() {
+            return maxChars;
+        }
+
+        public boolean keepsTail() {
+            return keepTail;
+        }
+    }
+
     public static final class ShellResult {
         private final boolean succeeded;
         private final int exitCode;
+        private final String stdout;
+        private final String stderr;
         private final String output;
+        private final boolean truncated;
+        private final boolean timedOut;
+
+        ShellResult(boolean succeeded, int exitCode, String output) {
+            this(succeeded, exitCode, output, "", false, false);
+        }
+
+        ShellResult(boolean succeeded, int exitCode, String stdout, String stderr) {
+            this(succeeded, exitCode, stdout, stderr, false, false);
+        }
 
-        private ShellResult(boolean succeeded, int exitCode, String output) {
+        ShellResult(boolean succeeded, int exitCode, String stdout, String stderr, boolean truncated) {
+            this(succeeded, exitCode, stdout, stderr, truncated, false);
+        }
+
+        private ShellResult(boolean succeeded, int exitCode, String stdout, String stderr, boolean truncated,
+                boolean timedOut) {
             this.succeeded = succeeded;
             this.exitCode = exitCode;
-            this.output = output == null ? "" : output.trim();
+            this.stdout = stdout == null ? "" : stdout.trim();
+            this.stderr = stderr == null ? "" : stderr.trim();
+            this.output = combineOutput(this.stdout, this.stderr);
+            this.truncated = truncated;
+            this.timedOut = timedOut;
+        }
+
+        static ShellResult timedOut(String message) {
+            return new ShellResult(false, -1, message, "", false, true);
+        }
+
+        private static String combineOutput(String stdout, String stderr) {
+            if (stderr.isEmpty()) {
+                return stdout;
+            }
+            StringBuilder combined = new StringBuilder(stdout);
+            for (String line : stderr.split("\n")) {
+                if (combined.length() > 0) {
+                    combined.append("\n");
+                }
+                combined.append("ERROR: ").append(line);
+            }
+            return combined.toString();
         }
 
         public boolean succeeded() {
@@ -528,6 +881,31 @@ public class ShellManager {
             return exitCode;
         }
 
+        public String stdout() {
+            return stdout;
+        }
+
+        public String stderr() {
+            return stderr;
+        }
+
+        /**
+         * True if output was dropped because it exceeded the {@link OutputLimit}.
+         */
+        public boolean truncated() {
+            return truncated;
+        }
+
+        /**
+         * True if the command was killed because it ran past its deadline.
+         */
+        public boolean timedOut() {
+            return timedOut;
+        }
+
+        /**
+         * Stdout followed by stderr, with stderr lines prefixed by "ERROR: ".
+         */
         public String output() {
             return output;
         }
@@ -0,0 +1,138 @@
+package com.northmendo.Appzuku;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+/**
+ * Read-only shell queries (process lists, activity dumps, app op queries)
+ * shared by every caller in the process. Concurrent requests for the same
+ * query wait for one execution instead of starting their own, and the result
+ * is reused for a short, per-query TTL. Anything that changes what these
+ * queries report (kills, app op changes, package installs and removals) must
+ * call {@link #invalidate()}; package broadcasts are handled here.
+ * Failed queries (null results) are never cached.
+ */
+public final class ShellQueryCache {
+    private static final String TAG = "ShellQueryCache";
+
+    private static ShellQueryCache instance;
+
+    private final ShellManager shellManager;
+    // Guarded by this. An entry is either loading or holds a completed result.
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private ShellQueryCache(Context context) {
+        this.shellManager = ShellManager.getInstance(context);
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidate();
+            }
+        }, filter);
+    }
+
+    public static synchronized ShellQueryCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new ShellQueryCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Output of {@code command} as returned by
+     * {@link ShellManager#runShellCommandAndGetFullOutput}, or a copy at most
+     * {@code ttlMs} old. This method is blocking and should be called from a
+     * background thread.
+     */
+    public String getOutput(String command, long ttlMs) {
+        return query(command, ttlMs, () -> shellManager.runShellCommandAndGetFullOutput(command));
+    }
+
+    /**
+     * Cached, single-flight result of {@code loader} under {@code key}. Use this
+     * for results derived from a streamed command, so only the parsed result is
+     * kept. The loader returns null on failure. This method is blocking and
+     * should be called from a background thread.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T query(String key, long ttlMs, Supplier<T> loader) {
+        Entry entry;
+        boolean owner = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null || entry.isExpired(ttlMs)) {
+                entry = new Entry();
+                entries.put(key, entry);
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            T value = null;
+            try {
+                value = loader.get();
+            } finally {
+                entry.complete(value);
+                if (value == null) {
+                    synchronized (this) {
+                        if (entries.get(key) == entry) {
+                            entries.remove(key);
+                        }
+                    }
+                }
+            }
+            return value;
+        }
+
+        try {
+            entry.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return (T) entry.value;
+    }
+
+    /**
+     * Drop every cached result. Queries already running are not interrupted,
+     * but their results are not reused by later callers.
+     */
+    public synchronized void invalidate() {
+        if (!entries.isEmpty()) {
+            Log.d(TAG, "Invalidating " + entries.size() + " cached queries");
+            entries.clear();
+        }
+    }
+
+    private static final class Entry {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Object value;
+        volatile long completedAt;
+
+        void complete(Object value) {
+            this.value = value;
+            completedAt = SystemClock.elapsedRealtime();
+            done.countDown();
+        }
+
+        boolean isExpired(long ttlMs) {
+            return done.getCount() == 0 && SystemClock.elapsedRealtime() - completedAt > ttlMs;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.northmendo.Appzuku;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enforces deadlines on shell processes. A {@link Watch} is armed with an
+ * action that kills the running process; if the command is still running when
+ * the deadline passes, or the caller cancels it, that action is run from the
+ * watchdog thread and the blocked reader sees the streams close.
+ */
+final class ShellWatchdog {
+    private static final String TAG = "ShellWatchdog";
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ShellWatchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ShellWatchdog() {
+    }
+
+    /**
+     * Kill action for a plain process. The streams are closed directly rather
+     * than through their readers, since a reader's lock is held by the thread
+     * blocked in readLine(). Closing also unblocks the reader when a child of
+     * the shell still holds the pipe open.
+     */
+    static Runnable processKiller(Process process) {
+        return () -> {
+            process.destroy();
+            closeQuietly(process.getInputStream());
+            closeQuietly(process.getErrorStream());
+            closeQuietly(process.getOutputStream());
+        };
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Deadline and cancellation state for one command or batch. The timeout is
+     * measured from {@link #arm} and from every {@link #restart}; a timeout of
+     * 0 means the command may run until it is cancelled.
+     */
+    static final class Watch {
+        private final long timeoutMs;
+        private Runnable killer;
+        private ScheduledFuture<?> pending;
+        private boolean timedOut;
+        private boolean cancelled;
+
+        Watch(long timeoutMs) {
+            this.timeoutMs = timeoutMs;
+        }
+
+        void arm(Runnable killer) {
+            boolean killNow;
+            synchronized (this) {
+                this.killer = killer;
+                killNow = cancelled;
+                if (!killNow) {
+                    schedule();
+                }
+            }
+            if (killNow) {
+                killer.run();
+            }
+        }
+
+        /**
+         * Give the next command of a batch a full timeout of its own.
+         */
+        synchronized void restart() {
+            if (killer != null && !timedOut && !cancelled) {
+                schedule();
+            }
+        }
+
+        synchronized void disarm() {
+            if (pending != null) {
+                pending.cancel(false);
+                pending = null;
+            }
+            killer = null;
+        }
+
+        void cancel() {
+            Runnable toRun;
+            synchronized (this) {
+                if (cancelled || timedOut) {
+                    return;
+                }
+                cancelled = true;
+                toRun = killer;
+                if (pending != null) {
+                    pending.cancel(false);
+                }
+            }
+            if (toRun != null) {
+                toRun.run();
+            }
+        }
+
+        synchronized boolean timedOut() {
+            return timedOut;
+        }
+
+        synchronized boolean cancelled() {
+            return cancelled;
+        }
+
+        synchronized boolean tripped() {
+            return timedOut || cancelled;
+        }
+
+        long timeoutMs() {
+            return timeoutMs;
+        }
+
+        private void schedule() {
+            if (pending != null) {
+                pending.cancel(false);
+                pending = null;
+            }
+            if (timeoutMs <= 0) {
+                return;
+            }
+            pending = scheduler.schedule(this::expire, timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        private void expire() {
+            Runnable toRun;
+            synchronized (this) {
+                if (killer == null || cancelled) {
+                    return;
+                }
+                timedOut = true;
+                toRun = killer;
+            }
+            Log.w(TAG, "Shell command exceeded " + timeoutMs + " ms, killing it");
+            toRun.run();
+        }
+
+        /**
+         * Result for a command that was stopped by this watch.
+         */
+        ShellManager.ShellResult trippedResult() {
+            return timedOut()
+                    ? ShellManager.ShellResult.timedOut("Timed out after " + timeoutMs + " ms")
+                    : new ShellManager.ShellResult(false, -1, "Cancelled");
+        }
+    }
+}
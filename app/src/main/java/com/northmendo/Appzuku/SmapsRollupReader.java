@@ -0,0 +1,237 @@
+package com.northmendo.Appzuku;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Precise memory accounting from /proc/&lt;pid&gt;/smaps_rollup. RSS counts
+ * every shared library and zygote page in full for each process, so summed
+ * RSS overstates what an app really costs; Pss splits shared pages between
+ * their users. Reading smaps_rollup walks the whole address space in the
+ * kernel, so results are cached per pid and only re-read when the process's
+ * start time changes (the pid was reused). All candidates are read in one
+ * root shell round trip. Other apps' smaps are not readable through Shizuku,
+ * so without root nothing is measured and callers keep using RSS.
+ * <p>
+ * Pss and RSS totals are not comparable, so a measurement is all or nothing:
+ * either every running package gets its Pss, or callers use RSS for all of
+ * them.
+ */
+public final class SmapsRollupReader {
+    private static final String TAG = "SmapsRollupReader";
+
+    private static SmapsRollupReader instance;
+
+    private final ShellManager shellManager;
+    // Guarded by this
+    private final Map<Integer, Sample> samples = new HashMap<>();
+
+    /**
+     * Memory of one process or, summed, of one package, in KB.
+     */
+    public static final class Usage {
+        public final long pssKb;
+        public final long privateDirtyKb;
+        public final long swapKb;
+
+        Usage(long pssKb, long privateDirtyKb, long swapKb) {
+            this.pssKb = pssKb;
+            this.privateDirtyKb = privateDirtyKb;
+            this.swapKb = swapKb;
+        }
+
+        /**
+         * Proportional resident memory plus swapped-out pages, which on zram
+         * still occupy RAM.
+         */
+        public long totalKb() {
+            return pssKb + swapKb;
+        }
+    }
+
+    private static final Sample EXITED = new Sample(-1, new Usage(0, 0, 0));
+
+    private static final class Sample {
+        final long startTime;
+        final Usage usage;
+
+        Sample(long startTime, Usage usage) {
+            this.startTime = startTime;
+            this.usage = usage;
+        }
+    }
+
+    private SmapsRollupReader(Context context) {
+        this.shellManager = ShellManager.getInstance(context);
+    }
+
+    public static synchronized SmapsRollupReader getInstance(Context context) {
+        if (instance == null) {
+            instance = new SmapsRollupReader(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Usage of every package in {@code snapshot}, keyed by package name, or an
+     * empty map if any package has a live process that could not be read.
+     * Processes that exited since the snapshot count as using nothing.
+     * Returns an empty map without root. This method is blocking and should
+     * be called from a background thread.
+     */
+    public synchronized Map<String, Usage> measurePackages(ProcessSnapshot snapshot) {
+        Map<String, Usage> result = new HashMap<>();
+        if (snapshot == null || !shellManager.hasRootAccess()) {
+            return result;
+        }
+
+        StringBuilder candidates = new StringBuilder();
+        Set<Integer> alive = new HashSet<>();
+        for (int row = 0; row < snapshot.size(); row++) {
+            if (snapshot.packageName(row) == null) {
+                continue;
+            }
+            int pid = snapshot.pid(row);
+            alive.add(pid);
+            Sample cached = samples.get(pid);
+            candidates.append(' ').append(pid).append(':').append(cached != null ? cached.startTime : -1);
+        }
+        samples.keySet().retainAll(alive);
+        if (alive.isEmpty()) {
+            return result;
+        }
+
+        Set<Integer> listed = refresh(candidates.toString());
+        if (listed == null) {
+            return result;
+        }
+
+        Map<String, long[]> totals = new HashMap<>();
+        for (int row = 0; row < snapshot.size(); row++) {
+            String packageName = snapshot.packageName(row);
+            if (packageName == null) {
+                continue;
+            }
+            Sample sample = samples.get(snapshot.pid(row));
+            if (sample == null) {
+                if (listed.contains(snapshot.pid(row))) {
+                    Log.d(TAG, "No smaps_rollup for " + packageName + ", using RSS for every package");
+                    return result;
+                }
+                // Exited since the snapshot
+                sample = EXITED;
+            }
+            long[] total = totals.get(packageName);
+            if (total == null) {
+                total = new long[3];
+                totals.put(packageName, total);
+            }
+            total[0] += sample.usage.pssKb;
+            total[1] += sample.usage.privateDirtyKb;
+            total[2] += sample.usage.swapKb;
+        }
+        for (Map.Entry<String, long[]> entry : totals.entrySet()) {
+            long[] total = entry.getValue();
+            result.put(entry.getKey(), new Usage(total[0], total[1], total[2]));
+        }
+        return result;
+    }
+
+    /**
+     * Run the batch for {@code candidates} ("pid:cachedStartTime" pairs) and
+     * return the pids it found alive, or null if it listed none. The script
+     * prints "@ pid startTime" for every live process and, only when the
+     * start time differs from the cached one, the process's Pss,
+     * Private_Dirty and Swap lines. Its exit status is that of the last
+     * candidate, so success is judged by what was listed instead.
+     */
+    private Set<Integer> refresh(String candidates) {
+        String command = "( cd /proc && for e in" + candidates + "; do"
+                + " p=${e%:*}; read -r st 2>/dev/null < $p/stat || continue;"
+                + " set -- ${st##*)}; echo \"@ $p ${20}\";"
+                + " [ \"${20}\" = \"${e#*:}\" ] && continue;"
+                + " while read -r k v _; do case $k in"
+                + " Pss:|Private_Dirty:|Swap:) echo \"$k $v\";;"
+                + " esac; done 2>/dev/null < $p/smaps_rollup;"
+                + " done )";
+        Parser parser = new Parser();
+        ShellManager.ShellResult result = shellManager.runShellCommandForEachLine(command, parser::accept);
+        // Output cut off by a timeout may end halfway through a process
+        if (!result.timedOut()) {
+            parser.finish();
+        }
+        if (parser.listed.isEmpty()) {
+            Log.w(TAG, "smaps_rollup batch failed: " + result.stderr());
+            return null;
+        }
+        Log.d(TAG, "Read smaps_rollup for " + parser.measured + " processes");
+        return parser.listed;
+    }
+
+    /**
+     * Applies the batch output to {@link #samples} as it streams in.
+     */
+    private final class Parser {
+        final Set<Integer> listed = new HashSet<>();
+        int measured;
+        private int pid = -1;
+        private long startTime;
+        private boolean hasUsage;
+        private long pssKb;
+        private long privateDirtyKb;
+        private long swapKb;
+
+        void accept(String line) {
+            String[] parts = line.trim().split("\\s+");
+            try {
+                if (parts.length == 3 && parts[0].equals("@")) {
+                    finish();
+                    pid = Integer.parseInt(parts[1]);
+                    startTime = Long.parseLong(parts[2]);
+                    listed.add(pid);
+                    Sample cached = samples.get(pid);
+                    if (cached != null && cached.startTime != startTime) {
+                        samples.remove(pid);
+                    }
+                } else if (parts.length == 2 && pid >= 0) {
+                    long kb = Long.parseLong(parts[1]);
+                    hasUsage = true;
+                    switch (parts[0]) {
+                        case "Pss:":
+                            pssKb = kb;
+                            break;
+                        case "Private_Dirty:":
+                            privateDirtyKb = kb;
+                            break;
+                        case "Swap:":
+                            swapKb = kb;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            } catch (NumberFormatException ignored) {
+            }
+        }
+
+        /**
+         * Store the usage collected for the current process, if any.
+         */
+        void finish() {
+            if (pid >= 0 && hasUsage) {
+                samples.put(pid, new Sample(startTime, new Usage(pssKb, privateDirtyKb, swapKb)));
+                measured++;
+            }
+            pid = -1;
+            hasUsage = false;
+            pssKb = 0;
+            privateDirtyKb = 0;
+            swapKb = 0;
+        }
+    }
+}
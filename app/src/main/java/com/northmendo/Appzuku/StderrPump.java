@@ -0,0 +1,131 @@
+package com.northmendo.Appzuku;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+
+/**
+ * Drains a framed shell's stderr on its own thread while the caller reads
+ * stdout, so a command that writes a lot to stderr can never block on a full
+ * pipe. Lines are routed to the oldest registered {@link Sink} until its bare
+ * end sentinel shows up (see {@link CommandFraming#frame}).
+ */
+final class StderrPump implements Runnable {
+    private static final String TAG = "StderrPump";
+
+    private final BufferedReader stderr;
+    private final ArrayDeque<Sink> sinks = new ArrayDeque<>();
+    private boolean closed;
+
+    StderrPump(BufferedReader stderr) {
+        this.stderr = stderr;
+    }
+
+    /**
+     * Register the stderr destination of the next framed command. Sinks must
+     * be registered in the order the commands were written.
+     */
+    synchronized Sink register(String sentinel, BoundedOutput output, Consumer<String> lineConsumer) {
+        Sink sink = new Sink(sentinel, output, lineConsumer);
+        if (closed) {
+            sink.finish(false);
+        } else {
+            sinks.addLast(sink);
+        }
+        return sink;
+    }
+
+    @Override
+    public void run() {
+        try {
+            String line;
+            while ((line = stderr.readLine()) != null) {
+                Sink sink;
+                synchronized (this) {
+                    sink = sinks.peekFirst();
+                }
+                if (sink == null) {
+                    Log.w(TAG, "Discarding stray shell error output: " + line);
+                    continue;
+                }
+                if (sink.accept(line)) {
+                    synchronized (this) {
+                        sinks.pollFirst();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "Shell stderr closed: " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                closed = true;
+                for (Sink sink : sinks) {
+                    sink.finish(false);
+                }
+                sinks.clear();
+            }
+        }
+    }
+
+    static final class Sink {
+        private final String sentinel;
+        private final BoundedOutput output;
+        private final Consumer<String> lineConsumer;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private String pending;
+        private volatile boolean completed;
+
+        private Sink(String sentinel, BoundedOutput output, Consumer<String> lineConsumer) {
+            this.sentinel = sentinel;
+            this.output = output;
+            this.lineConsumer = lineConsumer;
+        }
+
+        /**
+         * Returns true once the end sentinel has been seen.
+         */
+        private boolean accept(String line) {
+            if (line.equals(sentinel)) {
+                // The framing adds a newline before the sentinel; drop it if it was the only thing on the line
+                if (pending != null && !pending.isEmpty()) {
+                    emit(pending);
+                }
+                finish(true);
+                return true;
+            }
+            if (pending != null) {
+                emit(pending);
+            }
+            pending = line;
+            return false;
+        }
+
+        private void emit(String line) {
+            output.append(line);
+            if (lineConsumer != null) {
+                lineConsumer.accept("ERROR: " + line);
+            }
+        }
+
+        private void finish(boolean reachedSentinel) {
+            completed = reachedSentinel;
+            done.countDown();
+        }
+
+        /**
+         * Wait until every stderr line of the command has been captured.
+         *
+         * @throws IOException if stderr closed before the command's end sentinel
+         */
+        void await() throws IOException, InterruptedException {
+            done.await();
+            if (!completed) {
+                throw new IOException("Shell closed stderr while running command");
+            }
+        }
+    }
+}
@@ -8,7 +8,7 @@ import androidx.room.RoomDatabase;
 import androidx.sqlite.db.SupportSQLiteDatabase;
 import androidx.annotation.NonNull;
 
-@Database(entities = {AppStats.class}, version = 2, exportSchema = true)
+@Database(entities = {AppStats.class, AppPolicy.class}, version = 3, exportSchema = true)
 public abstract class AppDatabase extends RoomDatabase {
     private static AppDatabase instance;
 
@@ -19,13 +19,23 @@ public abstract class AppDatabase extends RoomDatabase {
         }
     };
 
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `app_policy` (`packageName` TEXT NOT NULL, "
+                    + "`flags` INTEGER NOT NULL, PRIMARY KEY(`packageName`))");
+        }
+    };
+
     public abstract AppStatsDao appStatsDao();
 
+    public abstract AppPolicyDao appPolicyDao();
+
     public static synchronized AppDatabase getInstance(Context context) {
         if (instance == null) {
             instance = Room.databaseBuilder(context.getApplicationContext(),
                     AppDatabase.class, "appzuku_db")
-                    .addMigrations(MIGRATION_1_2)
+                    .addMigrations(MIGRATION_1_2, MIGRATION_2_3)
                     .build();
         }
         return instance;
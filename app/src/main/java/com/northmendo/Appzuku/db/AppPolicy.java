@@ -0,0 +1,28 @@
+package com.northmendo.Appzuku.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * The user's lists an app belongs to, as a bit set of {@code FLAG_*} values.
+ * Rows whose flags drop to zero are deleted.
+ */
+@Entity(tableName = "app_policy")
+public class AppPolicy {
+    public static final int FLAG_HIDDEN = 1;
+    public static final int FLAG_WHITELISTED = 1 << 1;
+    public static final int FLAG_BLACKLISTED = 1 << 2;
+    public static final int FLAG_BG_RESTRICTED = 1 << 3;
+
+    @PrimaryKey
+    @NonNull
+    public String packageName;
+
+    public int flags;
+
+    public AppPolicy(@NonNull String packageName, int flags) {
+        this.packageName = packageName;
+        this.flags = flags;
+    }
+}
@@ -0,0 +1,55 @@
+package com.northmendo.Appzuku.db;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import java.util.Collection;
+import java.util.List;
+
+@Dao
+public interface AppPolicyDao {
+    @Query("SELECT * FROM app_policy")
+    List<AppPolicy> getAll();
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    void insertIfAbsent(AppPolicy policy);
+
+    @Query("UPDATE app_policy SET flags = flags | :flag WHERE packageName = :packageName")
+    void addFlag(String packageName, int flag);
+
+    @Query("UPDATE app_policy SET flags = flags & ~:flag WHERE packageName = :packageName")
+    void removeFlag(String packageName, int flag);
+
+    @Query("DELETE FROM app_policy WHERE packageName = :packageName AND flags = 0")
+    void deleteIfEmpty(String packageName);
+
+    /**
+     * Set or clear one flag of one package, touching only its row.
+     */
+    @Transaction
+    default void setFlag(String packageName, int flag, boolean set) {
+        if (set) {
+            insertIfAbsent(new AppPolicy(packageName, 0));
+            addFlag(packageName, flag);
+        } else {
+            removeFlag(packageName, flag);
+            deleteIfEmpty(packageName);
+        }
+    }
+
+    /**
+     * Set {@code flag} on {@code added} and clear it on {@code removed}.
+     */
+    @Transaction
+    default void updateFlag(int flag, Collection<String> added, Collection<String> removed) {
+        for (String packageName : added) {
+            setFlag(packageName, flag, true);
+        }
+        for (String packageName : removed) {
+            setFlag(packageName, flag, false);
+        }
+    }
+}